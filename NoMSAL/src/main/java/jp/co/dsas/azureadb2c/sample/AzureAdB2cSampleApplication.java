@@ -26,12 +26,14 @@ package jp.co.dsas.azureadb2c.sample;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ImportResource;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Azure AD B2C entry point for sample application.
  */
 @SpringBootApplication
 @ImportResource("classpath:applicationContext.xml")
+@EnableScheduling
 public class AzureAdB2cSampleApplication {
 
 	/**
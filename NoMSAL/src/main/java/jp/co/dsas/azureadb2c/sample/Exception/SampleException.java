@@ -29,13 +29,44 @@ package jp.co.dsas.azureadb2c.sample.Exception;
 @SuppressWarnings("serial")
 public class SampleException extends Exception
 {
+    /**
+     * the cause of the exception, counted by the metrics
+     */
+    public enum Reason
+    {
+        BAD_STATE, B2C_ERROR, NULL_ID_TOKEN, VERIFICATION_FAILED, UNKNOWN_FLOW, TOO_MANY_PENDING, B2C_UNAVAILABLE, SESSION_TOO_LARGE, OTHER
+    }
+
+    private final Reason reason;
+
     /**
      * Application error class
      * constructor
      * @param message the message of the exception
      */
     public SampleException(String message)
+    {
+        this(Reason.OTHER, message);
+    }
+
+    /**
+     * Application error class
+     * constructor
+     * @param reason the cause of the exception
+     * @param message the message of the exception
+     */
+    public SampleException(Reason reason, String message)
     {
         super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * get the cause of the exception
+     * @return the cause of the exception
+     */
+    public Reason getReason()
+    {
+        return reason;
     }
 }
@@ -0,0 +1,244 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.audit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The append-only audit files, written through a memory-mapped buffer.
+ * <p>
+ * Each record is one line of JSON. A file is mapped at its full size when it is opened and a new
+ * file is started when the next record does not fit, so writing a record is a copy into memory and
+ * the page cache writes it to the disk. {@link #force()} is called periodically to bound what a
+ * crash of the host can lose. A file is truncated to its records when it is closed; a file left by a
+ * killed process ends with zero bytes after the last line. A new directory and the files are
+ * readable only by this user. Only the thread draining the ring buffer uses this class.
+ */
+final class AuditFileWriter implements Closeable {
+
+    private static final Logger _logger = LoggerFactory.getLogger(AuditFileWriter.class);
+
+    private static final String FILE_PREFIX = "audit-";
+
+    private static final String FILE_SUFFIX = ".jsonl";
+
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Path _dir;
+
+    private final int _fileSize;
+
+    private final int _maxFiles;
+
+    /**
+     * The line being encoded
+     */
+    private final LineBuffer _line = new LineBuffer();
+
+    /**
+     * The generator kept for all the lines, flushed to the line buffer after each record
+     */
+    private final JsonGenerator _generator;
+
+    private FileChannel _channel;
+
+    private MappedByteBuffer _buffer;
+
+    /**
+     * Whether records were written after the last {@link #force()}
+     */
+    private boolean _dirty;
+
+    /**
+     * Constructor
+     *
+     * @param dir      The directory of the files
+     * @param fileSize The size of one file in bytes
+     * @param maxFiles The number of the files kept, the oldest ones are deleted (0 to keep all)
+     * @throws IOException The exception class when the JSON generator cannot be created
+     */
+    AuditFileWriter(Path dir, int fileSize, int maxFiles) throws IOException {
+        this._dir = dir;
+        this._fileSize = fileSize;
+        this._maxFiles = maxFiles;
+        this._generator = new JsonFactory().setRootValueSeparator(null).createGenerator(_line);
+    }
+
+    /**
+     * Append the record to the current file, starting a new file when it is full
+     *
+     * @param record The record
+     * @throws IOException The exception class when the file cannot be created or the record is too large
+     */
+    void append(AuditRecord record) throws IOException {
+        _line.reset();
+        _encode(record);
+        if (_line.size() > _fileSize) {
+            throw new IOException("The audit record is larger than a file: " + _line.size() + " bytes");
+        }
+        if (_buffer == null || _buffer.remaining() < _line.size()) {
+            _roll();
+        }
+        _line.writeTo(_buffer);
+        _dirty = true;
+    }
+
+    /**
+     * Write the records appended since the last call to the disk
+     */
+    void force() {
+        if (_dirty) {
+            _buffer.force();
+            _dirty = false;
+        }
+    }
+
+    /**
+     * Write the records to the disk and close the current file
+     *
+     * @throws IOException The exception class for the failure of closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (_channel == null) {
+            return;
+        }
+        force();
+        var length = _buffer.position();
+        try {
+            _channel.truncate(length);
+        } catch (IOException e) {
+            // Some platforms do not shrink a file while it is mapped, the zero bytes after the last line are left
+            _logger.debug("The audit file is not truncated: {}", e.getMessage());
+        }
+        _channel.close();
+        _channel = null;
+        _buffer = null;
+    }
+
+    /**
+     * Close the current file, open a new one and delete the oldest files
+     *
+     * @throws IOException The exception class when the new file cannot be created
+     */
+    private void _roll() throws IOException {
+        close();
+        // The records identify the users, so they are private to this user
+        var posix = _dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (Files.notExists(_dir)) {
+            if (posix) {
+                Files.createDirectories(_dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(_dir);
+            }
+        }
+        var file = _dir.resolve(FILE_PREFIX + LocalDateTime.now().format(FILE_TIMESTAMP) + FILE_SUFFIX);
+        var options = Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        _channel = posix
+                ? FileChannel.open(file, options, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+                : FileChannel.open(file, options);
+        _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, _fileSize);
+        _logger.info("Writing the audit records to {}", file);
+
+        if (_maxFiles <= 0) {
+            return;
+        }
+        // The timestamps in the names sort the files from the oldest
+        try (var files = Files.list(_dir)) {
+            var auditFiles = files
+                    .filter(path -> path.getFileName().toString().startsWith(FILE_PREFIX))
+                    .sorted()
+                    .toList();
+            for (int i = 0; i < auditFiles.size() - _maxFiles; i++) {
+                Files.deleteIfExists(auditFiles.get(i));
+            }
+        } catch (IOException e) {
+            _logger.warn("Failed to delete the old audit files in {}: {}", _dir, e.getMessage());
+        }
+    }
+
+    /**
+     * Encode the record to a line of JSON
+     *
+     * @param record The record
+     * @throws IOException The exception class for the failure of encoding
+     */
+    private void _encode(AuditRecord record) throws IOException {
+        var generator = _generator;
+        generator.writeStartObject();
+        generator.writeStringField("time", Instant.ofEpochMilli(record.time).toString());
+        generator.writeStringField("action", record.action.name().toLowerCase(Locale.ROOT));
+        generator.writeStringField("outcome", record.outcome);
+        _writeIfPresent(generator, "flow", record.flow);
+        _writeIfPresent(generator, "sub", record.sub);
+        _writeIfPresent(generator, "idp", record.idp);
+        _writeIfPresent(generator, "tid", record.tid);
+        if (record.tokenExpiresAt != 0) {
+            generator.writeStringField("token_nbf", Instant.ofEpochSecond(record.tokenNotBefore).toString());
+            generator.writeStringField("token_exp", Instant.ofEpochSecond(record.tokenExpiresAt).toString());
+        }
+        generator.writeEndObject();
+        generator.flush();
+        _line.write('\n');
+    }
+
+    private static void _writeIfPresent(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value);
+        }
+    }
+
+    /**
+     * The byte array output stream copied to a buffer without a copy of the array
+     */
+    private static final class LineBuffer extends ByteArrayOutputStream {
+
+        LineBuffer() {
+            super(512);
+        }
+
+        void writeTo(ByteBuffer buffer) {
+            buffer.put(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.audit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.controller.UserInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The audit log of the sign-ins, the sign-outs and their failures.
+ * <p>
+ * The request threads fill a slot of the {@link AuditRingBuffer} and return without a lock or any
+ * I/O. One background thread drains the ring in batches to the {@link AuditFileWriter}. When the
+ * writer falls behind and the ring is full, the record is dropped at once with overflow "drop", or
+ * the request waits for a free slot up to overflow_timeout and then drops it with overflow "wait".
+ * The dropped records are counted in {@code b2c.audit.records{result=dropped}}.
+ */
+@Component
+public class AuditLog {
+
+    private static final Logger _logger = LoggerFactory.getLogger(AuditLog.class);
+
+    /**
+     * How long a producer waiting for a free slot parks between the attempts
+     */
+    private static final long OVERFLOW_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * The audited actions
+     */
+    public enum Action {
+        SIGN_IN,
+        SIGN_OUT
+    }
+
+    /**
+     * The ring of the records waiting for the writer, or null if the audit log is disabled
+     */
+    private final AuditRingBuffer _ring;
+
+    private final AuditFileWriter _writer;
+
+    /**
+     * The thread draining the ring, or null until the audit log is started
+     */
+    private volatile Thread _writerThread;
+
+    private final int _batchSize;
+
+    private final long _forceIntervalNanos;
+
+    private final boolean _waitOnOverflow;
+
+    private final long _overflowTimeoutNanos;
+
+    private final Counter _written;
+
+    private final Counter _dropped;
+
+    private final Counter _failed;
+
+    /**
+     * Whether the writer is parked, so a producer has to wake it up
+     */
+    private volatile boolean _idle;
+
+    private volatile boolean _running = true;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig  The web app configuration
+     * @param meterRegistry The registry of the metrics
+     * @throws IOException The exception class when the writer cannot be created
+     */
+    public AuditLog(WebAppConfig webAppConfig, MeterRegistry meterRegistry) throws IOException {
+        this._batchSize = webAppConfig.getAuditBatchSize();
+        this._forceIntervalNanos = webAppConfig.getAuditForceInterval().toNanos();
+        this._waitOnOverflow = "wait".equals(webAppConfig.getAuditOverflow());
+        this._overflowTimeoutNanos = webAppConfig.getAuditOverflowTimeout().toNanos();
+        this._written = _recordCounter(meterRegistry, "written");
+        this._dropped = _recordCounter(meterRegistry, "dropped");
+        this._failed = _recordCounter(meterRegistry, "failed");
+        if (!webAppConfig.isAuditEnabled()) {
+            this._ring = null;
+            this._writer = null;
+            return;
+        }
+
+        this._ring = new AuditRingBuffer(webAppConfig.getAuditBufferSize());
+        this._writer = new AuditFileWriter(Path.of(webAppConfig.getAuditDir()),
+                (int) Math.min(webAppConfig.getAuditFileSize().toBytes(), Integer.MAX_VALUE),
+                webAppConfig.getAuditMaxFiles());
+        Gauge.builder("b2c.audit.backlog", _ring, AuditRingBuffer::size)
+                .description("The audit records waiting for the writer")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start the thread writing the records. The records published before are kept in the ring.
+     */
+    @PostConstruct
+    public void start() {
+        if (_ring == null) {
+            return;
+        }
+        _writerThread = Thread.ofPlatform().name("audit-writer").daemon().start(this::_run);
+    }
+
+    /**
+     * Record a successful sign-in
+     *
+     * @param flow  The name of the user flow
+     * @param user  The user
+     * @param token The tokens issued
+     */
+    public void signedIn(String flow, UserInfo user, TokenInfo token) {
+        _publish(Action.SIGN_IN, "success", flow, user, token);
+    }
+
+    /**
+     * Record a successful sign-out
+     *
+     * @param user  The user signed out, or null if the session had no tokens
+     * @param token The tokens of the session, or null
+     */
+    public void signedOut(UserInfo user, TokenInfo token) {
+        _publish(Action.SIGN_OUT, "success", null, user, token);
+    }
+
+    /**
+     * Record a failed sign-in or sign-out
+     *
+     * @param action  The action that failed
+     * @param flow    The name of the user flow, or null if it is not known yet
+     * @param outcome The cause of the failure
+     */
+    public void failed(Action action, String flow, String outcome) {
+        _publish(action, outcome, flow, null, null);
+    }
+
+    /**
+     * Write the records left in the ring and close the file
+     */
+    @PreDestroy
+    public void stop() {
+        if (_ring == null || _writerThread == null) {
+            return;
+        }
+        _running = false;
+        LockSupport.unpark(_writerThread);
+        try {
+            _writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fill a slot of the ring with the record
+     *
+     * @param action  The action
+     * @param outcome "success", or the cause of the failure
+     * @param flow    The name of the user flow, or null
+     * @param user    The user, or null
+     * @param token   The tokens, or null
+     */
+    private void _publish(Action action, String outcome, String flow, UserInfo user, TokenInfo token) {
+        if (_ring == null) {
+            return;
+        }
+        var sequence = _claim();
+        if (sequence < 0) {
+            _dropped.increment();
+            return;
+        }
+        var record = _ring.get(sequence);
+        record.time = System.currentTimeMillis();
+        record.action = action;
+        record.outcome = outcome;
+        record.flow = flow;
+        record.sub = user != null ? user.getSub() : null;
+        record.idp = user != null ? user.getIdp() : null;
+        record.tid = user != null ? user.getTid() : null;
+        record.tokenNotBefore = token != null ? token.getNotBefore() : 0;
+        record.tokenExpiresAt = token != null ? token.getAccessTokenExpiresAt().getEpochSecond() : 0;
+        _ring.publish(sequence);
+        if (_idle) {
+            LockSupport.unpark(_writerThread);
+        }
+    }
+
+    /**
+     * Claim a slot, waiting for the writer up to the timeout when the ring is full and the policy is "wait"
+     *
+     * @return The sequence of the slot, or -1 if the record is dropped
+     */
+    private long _claim() {
+        var sequence = _ring.tryClaim();
+        if (sequence >= 0 || !_waitOnOverflow) {
+            return sequence;
+        }
+        var deadline = System.nanoTime() + _overflowTimeoutNanos;
+        do {
+            LockSupport.unpark(_writerThread);
+            LockSupport.parkNanos(OVERFLOW_PARK_NANOS);
+            sequence = _ring.tryClaim();
+        } while (sequence < 0 && System.nanoTime() - deadline < 0);
+        return sequence;
+    }
+
+    /**
+     * Drain the ring to the file until the audit log is stopped and the ring is empty
+     */
+    private void _run() {
+        var lastForce = System.nanoTime();
+        while (_running || _ring.size() > 0) {
+            var count = _ring.drain(this::_write, _batchSize);
+            var now = System.nanoTime();
+            if (now - lastForce >= _forceIntervalNanos) {
+                _writer.force();
+                lastForce = now;
+            }
+            if (count > 0) {
+                continue;
+            }
+            // Nothing to write: park until a producer wakes the writer up or the next force is due
+            _idle = true;
+            if (_ring.size() == 0 && _running) {
+                LockSupport.parkNanos(_forceIntervalNanos);
+            } else {
+                // A producer is between its claim and its publish
+                Thread.onSpinWait();
+            }
+            _idle = false;
+        }
+        try {
+            _writer.close();
+        } catch (IOException e) {
+            _logger.warn("Failed to close the audit file: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Append the record to the file
+     *
+     * @param record The record
+     */
+    private void _write(AuditRecord record) {
+        try {
+            _writer.append(record);
+            _written.increment();
+        } catch (IOException | RuntimeException e) {
+            _failed.increment();
+            _logger.error("Failed to write the audit record of {} {}: {}", record.action, record.outcome, e.getMessage());
+        } finally {
+            record.clear();
+        }
+    }
+
+    private static Counter _recordCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("b2c.audit.records")
+                .description("The audit records by the result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.audit;
+
+/**
+ * One slot of the {@link AuditRingBuffer}.
+ * <p>
+ * The slots are allocated once and filled in place by the request threads, so publishing a record
+ * does not allocate. The strings are the ones already held by the user and token models.
+ */
+final class AuditRecord {
+
+    /**
+     * The epoch milliseconds when the event happened
+     */
+    long time;
+
+    AuditLog.Action action;
+
+    /**
+     * "success", or the cause of the failure
+     */
+    String outcome;
+
+    String flow;
+
+    String sub;
+
+    String idp;
+
+    String tid;
+
+    /**
+     * The epoch seconds when the access token becomes valid, or 0 if there is no token
+     */
+    long tokenNotBefore;
+
+    /**
+     * The epoch seconds when the access token becomes invalid, or 0 if there is no token
+     */
+    long tokenExpiresAt;
+
+    /**
+     * Drop the references, so the slot does not keep the strings alive after it is written
+     */
+    void clear() {
+        outcome = null;
+        flow = null;
+        sub = null;
+        idp = null;
+        tid = null;
+    }
+}
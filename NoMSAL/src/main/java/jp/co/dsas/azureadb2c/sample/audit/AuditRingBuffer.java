@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * The bounded ring of the audit records, written by many threads and read by one.
+ * <p>
+ * A producer claims the next sequence with a CAS, fills the slot of the sequence and publishes it by
+ * storing the sequence in the slot's marker. The single consumer reads the slots in order while their
+ * markers match, and then moves the consumed sequence forward, which frees the slots for the producers.
+ * No lock is taken on either side, and a producer that finds the ring full fails at once instead of
+ * waiting, so the caller decides what to do with the overflow.
+ */
+final class AuditRingBuffer {
+
+    private final AuditRecord[] _records;
+
+    /**
+     * The last sequence published in each slot, -1 before the first one
+     */
+    private final AtomicLongArray _published;
+
+    private final int _mask;
+
+    /**
+     * The next sequence to be claimed by a producer
+     */
+    private final AtomicLong _claimed = new AtomicLong();
+
+    /**
+     * The next sequence to be read by the consumer, written only by the consumer
+     */
+    private volatile long _consumed;
+
+    /**
+     * Constructor
+     *
+     * @param capacity The number of the slots, rounded up to a power of two
+     */
+    AuditRingBuffer(int capacity) {
+        var size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this._records = new AuditRecord[size];
+        this._published = new AtomicLongArray(size);
+        this._mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            _records[i] = new AuditRecord();
+            _published.set(i, -1);
+        }
+    }
+
+    /**
+     * Claim the next slot
+     *
+     * @return The sequence of the slot, or -1 if the ring is full
+     */
+    long tryClaim() {
+        while (true) {
+            var sequence = _claimed.get();
+            if (sequence - _consumed >= _records.length) {
+                return -1;
+            }
+            if (_claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * Get the slot of the claimed sequence to fill it
+     *
+     * @param sequence The claimed sequence
+     * @return The slot
+     */
+    AuditRecord get(long sequence) {
+        return _records[(int) sequence & _mask];
+    }
+
+    /**
+     * Hand the filled slot to the consumer
+     *
+     * @param sequence The claimed sequence
+     */
+    void publish(long sequence) {
+        _published.set((int) sequence & _mask, sequence);
+    }
+
+    /**
+     * Read the published records in order
+     *
+     * @param consumer The consumer of the records, called on this thread
+     * @param max      The maximum number of the records read
+     * @return The number of the records read
+     */
+    int drain(Consumer<AuditRecord> consumer, int max) {
+        var next = _consumed;
+        var count = 0;
+        // A slot claimed but not published yet stops the batch, the records after it wait for the next one
+        while (count < max && _published.get((int) next & _mask) == next) {
+            consumer.accept(_records[(int) next & _mask]);
+            next++;
+            count++;
+        }
+        if (count > 0) {
+            _consumed = next;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of the records claimed and not read yet
+     *
+     * @return The number of the records
+     */
+    int size() {
+        return (int) (_claimed.get() - _consumed);
+    }
+
+    /**
+     * Get the number of the slots
+     *
+     * @return The number of the slots
+     */
+    int capacity() {
+        return _records.length;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.config;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * One user flow of a tenant and its endpoints, computed once when the flow is configured
+ */
+@Getter
+@ToString(exclude = "secret")
+public final class B2cFlow {
+
+    /**
+     * The name of the flow in the configuration
+     */
+    private final String name;
+
+    private final String tenant;
+
+    private final String tenantId;
+
+    private final String clientId;
+
+    private final String secret;
+
+    private final String userFlow;
+
+    private final String scope;
+
+    private final String authorizeEndpoint;
+
+    private final String logoutEndpoint;
+
+    private final String tokenEndpoint;
+
+    private final String keysEndpoint;
+
+    private final String openIdConfigurationEndpoint;
+
+    private final String issuer;
+
+    /**
+     * Constructor
+     *
+     * @param name          The name of the flow in the configuration
+     * @param tenant        Azure AD B2C tenant name
+     * @param tenantId      Azure AD B2C tenant id
+     * @param clientId      Azure AD B2C client id
+     * @param secret        Azure AD B2C client secret
+     * @param userFlow      Azure AD B2C user flow name
+     * @param scope         Azure AD B2C scope
+     * @param authorityHost The scheme and host of the endpoints, or null for https://{tenant}.b2clogin.com
+     */
+    public B2cFlow(String name, String tenant, String tenantId, String clientId, String secret, String userFlow,
+                   String scope, String authorityHost) {
+        this.name = name;
+        this.tenant = tenant;
+        this.tenantId = tenantId;
+        this.clientId = clientId;
+        this.secret = secret;
+        this.userFlow = userFlow;
+        this.scope = scope;
+        // The host can be replaced, e.g. by a local stand-in of Azure AD B2C for the load tests
+        var host = authorityHost != null && !authorityHost.isBlank()
+                ? authorityHost.replaceAll("/+$", "")
+                : "https://" + tenant + ".b2clogin.com";
+        var authority = host + "/" + tenant + ".onmicrosoft.com/" + userFlow;
+        this.authorizeEndpoint = authority + "/oauth2/v2.0/authorize";
+        this.logoutEndpoint = authority + "/oauth2/v2.0/logout";
+        this.tokenEndpoint = authority + "/oauth2/v2.0/token";
+        this.keysEndpoint = authority + "/discovery/v2.0/keys/";
+        this.openIdConfigurationEndpoint = authority + "/v2.0/.well-known/openid-configuration";
+        this.issuer = host + "/" + tenantId + "/v2.0/";
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.config;
+
+import jp.co.dsas.azureadb2c.sample.service.B2cFlowRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+
+/**
+ * The HTTP client config class for the calls to Azure AD B2C
+ */
+@Configuration
+public class HttpClientConfig {
+
+    private static final Logger _logger = LoggerFactory.getLogger(HttpClientConfig.class);
+
+    private final WebAppConfig _webAppConfig;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     */
+    public HttpClientConfig(WebAppConfig webAppConfig) {
+        this._webAppConfig = webAppConfig;
+    }
+
+    /**
+     * The shared HTTP client that keeps the connections to Azure AD B2C alive.
+     * HTTP/2 is used when the server supports it, otherwise the HTTP/1.1 connections are pooled.
+     * In the virtual thread mode the asynchronous work of the client also runs on virtual threads.
+     *
+     * @return The HTTP client
+     */
+    @Bean
+    public HttpClient b2cHttpClient() {
+        // The JDK client reads the pool settings once, when the first client is created
+        _setPropertyIfAbsent("jdk.httpclient.connectionPoolSize", String.valueOf(_webAppConfig.getHttpMaxConnections()));
+        _setPropertyIfAbsent("jdk.httpclient.keepalive.timeout", String.valueOf(_webAppConfig.getHttpKeepAlive().toSeconds()));
+        var builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(_webAppConfig.getHttpConnectTimeout())
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (_webAppConfig.isVirtualThreads()) {
+            builder.executor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+        return builder.build();
+    }
+
+    /**
+     * The shared REST client for the token and key endpoints
+     *
+     * @param b2cHttpClient The shared HTTP client
+     * @return The REST client
+     */
+    @Bean
+    public RestTemplate b2cRestTemplate(HttpClient b2cHttpClient) {
+        var factory = new JdkClientHttpRequestFactory(b2cHttpClient);
+        factory.setReadTimeout(_webAppConfig.getHttpReadTimeout());
+        return new RestTemplate(factory);
+    }
+
+    /**
+     * Open the connections to Azure AD B2C before the first sign-in
+     *
+     * @param event The event when the application is ready
+     */
+    @EventListener
+    public void warmUp(ApplicationReadyEvent event) {
+        var httpClient = b2cHttpClient();
+        // Open the connections once for each host of the user flows
+        var hosts = new HashSet<String>();
+        for (var context : event.getApplicationContext().getBean(B2cFlowRegistry.class).getAll()) {
+            var uri = URI.create(context.flow().getOpenIdConfigurationEndpoint());
+            if (!hosts.add(uri.getHost())) {
+                continue;
+            }
+            var request = HttpRequest.newBuilder(uri)
+                    .timeout(_webAppConfig.getHttpReadTimeout())
+                    .build();
+            for (int i = 0; i < _webAppConfig.getHttpWarmupConnections(); i++) {
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((response, e) -> {
+                            if (e != null) {
+                                _logger.warn("Failed to warm up the connection to {}: {}", uri.getHost(), e.getMessage());
+                            } else {
+                                _logger.debug("Warmed up the connection to {} ({})", uri.getHost(), response.version());
+                            }
+                        });
+            }
+        }
+    }
+
+    /**
+     * Set the system property unless it is set on the command line
+     *
+     * @param key   The property name
+     * @param value The property value
+     */
+    private static void _setPropertyIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
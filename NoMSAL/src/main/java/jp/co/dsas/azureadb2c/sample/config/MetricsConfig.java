@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jp.co.dsas.azureadb2c.sample.jfr.SlowSignInRecorder;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInMetrics;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInTimingInterceptor;
+import jp.co.dsas.azureadb2c.sample.metrics.ViewRenderTimingInterceptor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * The config class of the metrics of the web pages
+ */
+@Configuration
+public class MetricsConfig implements WebMvcConfigurer {
+
+    private final MeterRegistry _meterRegistry;
+
+    private final SignInMetrics _signInMetrics;
+
+    private final SlowSignInRecorder _slowSignInRecorder;
+
+    /**
+     * Constructor
+     *
+     * @param meterRegistry      The registry of the metrics
+     * @param signInMetrics      The metrics of the sign-in
+     * @param slowSignInRecorder The flight recording dumped on a slow sign-in
+     */
+    public MetricsConfig(MeterRegistry meterRegistry, SignInMetrics signInMetrics, SlowSignInRecorder slowSignInRecorder) {
+        this._meterRegistry = meterRegistry;
+        this._signInMetrics = signInMetrics;
+        this._slowSignInRecorder = slowSignInRecorder;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ViewRenderTimingInterceptor(_meterRegistry));
+        registry.addInterceptor(new SignInTimingInterceptor(_signInMetrics, _slowSignInRecorder))
+                .addPathPatterns("/success");
+    }
+}
@@ -26,8 +26,11 @@ package jp.co.dsas.azureadb2c.sample.config;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.time.Duration;
+
 /**
  * Web application config class
  */
@@ -70,4 +73,382 @@ public class WebAppConfig implements WebMvcConfigurer {
      */
     @Value("${spring.application.user_flow}")
     private String userFlow = "B2C_1_user_flow";
+
+    /**
+     * The scheme and host of the Azure AD B2C endpoints, or empty for https://{tenant}.b2clogin.com
+     */
+    @Value("${spring.application.authority_host}")
+    private String authorityHost = "";
+
+    /**
+     * The base URL of this application that Azure AD B2C redirects back to
+     */
+    @Value("${spring.application.redirect_base_url}")
+    private String redirectBaseUrl = "http://localhost:8080";
+
+    /**
+     * The interval of the background refresh of the OpenID discovery documents
+     */
+    @Value("${spring.application.discovery_refresh_interval}")
+    private Duration discoveryRefreshInterval = Duration.ofHours(1);
+
+    /**
+     * How long the cached signing keys are used without revalidation
+     */
+    @Value("${spring.application.jwks.ttl}")
+    private Duration jwksTtl = Duration.ofMinutes(10);
+
+    /**
+     * How long expired signing keys are still served while they are refreshed in the background
+     */
+    @Value("${spring.application.jwks.stale_while_revalidate}")
+    private Duration jwksStaleWhileRevalidate = Duration.ofHours(1);
+
+    /**
+     * The maximum number of signing keys held in the cache
+     */
+    @Value("${spring.application.jwks.max_size}")
+    private int jwksMaxSize = 16;
+
+    /**
+     * How long a key id that is missing from the fetched keys is rejected without fetching again
+     */
+    @Value("${spring.application.jwks.negative_ttl}")
+    private Duration jwksNegativeTtl = Duration.ofSeconds(30);
+
+    /**
+     * The minimum interval between two fetches of the signing keys caused by unknown key ids
+     */
+    @Value("${spring.application.jwks.min_refresh_interval}")
+    private Duration jwksMinRefreshInterval = Duration.ofSeconds(10);
+
+    /**
+     * The interval of the background polling of the signing keys
+     */
+    @Value("${spring.application.jwks.poll_interval}")
+    private Duration jwksPollInterval = Duration.ofMinutes(5);
+
+    /**
+     * The directory where the last good signing keys are saved, or empty to disable the snapshot
+     */
+    @Value("${spring.application.jwks.snapshot_dir}")
+    private String jwksSnapshotDir = "";
+
+    /**
+     * The maximum age of the saved signing keys that are loaded at startup
+     */
+    @Value("${spring.application.jwks.snapshot_max_age}")
+    private Duration jwksSnapshotMaxAge = Duration.ofDays(7);
+
+    /**
+     * The timeout for connecting to Azure AD B2C
+     */
+    @Value("${spring.application.http.connect_timeout}")
+    private Duration httpConnectTimeout = Duration.ofSeconds(5);
+
+    /**
+     * The timeout for reading the response from Azure AD B2C
+     */
+    @Value("${spring.application.http.read_timeout}")
+    private Duration httpReadTimeout = Duration.ofSeconds(10);
+
+    /**
+     * The maximum number of idle HTTP/1.1 connections kept in the pool
+     */
+    @Value("${spring.application.http.max_connections}")
+    private int httpMaxConnections = 20;
+
+    /**
+     * How long an idle connection is kept alive
+     */
+    @Value("${spring.application.http.keep_alive}")
+    private Duration httpKeepAlive = Duration.ofMinutes(5);
+
+    /**
+     * The number of connections opened at startup
+     */
+    @Value("${spring.application.http.warmup_connections}")
+    private int httpWarmupConnections = 2;
+
+    /**
+     * The concurrency limit of the calls to Azure AD B2C at the start
+     */
+    @Value("${spring.application.b2c_guard.initial_limit}")
+    private int b2cGuardInitialLimit = 20;
+
+    /**
+     * The upper bound of the adaptive concurrency limit of the calls to Azure AD B2C
+     */
+    @Value("${spring.application.b2c_guard.max_limit}")
+    private int b2cGuardMaxLimit = 200;
+
+    /**
+     * The latency over which a call to Azure AD B2C is treated as slow
+     */
+    @Value("${spring.application.b2c_guard.latency_threshold}")
+    private Duration b2cGuardLatencyThreshold = Duration.ofSeconds(2);
+
+    /**
+     * The number of the last calls to Azure AD B2C whose outcomes open the circuit
+     */
+    @Value("${spring.application.b2c_guard.window_size}")
+    private int b2cGuardWindowSize = 20;
+
+    /**
+     * The rate in percent of the failed or slow calls at which the circuit opens
+     */
+    @Value("${spring.application.b2c_guard.failure_rate_threshold}")
+    private int b2cGuardFailureRateThreshold = 50;
+
+    /**
+     * How long the circuit stays open before a trial call
+     */
+    @Value("${spring.application.b2c_guard.open_duration}")
+    private Duration b2cGuardOpenDuration = Duration.ofSeconds(30);
+
+    /**
+     * Whether a slow GET to Azure AD B2C is hedged with a second request
+     */
+    @Value("${spring.application.b2c_guard.hedge_enabled}")
+    private boolean b2cGuardHedgeEnabled = false;
+
+    /**
+     * The percentile of the recent latencies after which a GET is hedged
+     */
+    @Value("${spring.application.b2c_guard.hedge_percentile}")
+    private int b2cGuardHedgePercentile = 95;
+
+    /**
+     * The shortest wait before a GET is hedged
+     */
+    @Value("${spring.application.b2c_guard.hedge_min_delay}")
+    private Duration b2cGuardHedgeMinDelay = Duration.ofMillis(50);
+
+    /**
+     * The retries and hedges allowed for each original request to Azure AD B2C
+     */
+    @Value("${spring.application.b2c_guard.retry_budget_ratio}")
+    private double b2cGuardRetryBudgetRatio = 0.1;
+
+    /**
+     * The retries and hedges allowed per second regardless of the requests
+     */
+    @Value("${spring.application.b2c_guard.retry_budget_min_per_second}")
+    private double b2cGuardRetryBudgetMinPerSecond = 1.0;
+
+    /**
+     * Where the sessions are stored, "heap" for the heap of this process or "mapped_file"
+     */
+    @Value("${spring.application.session.store}")
+    private String sessionStore = "heap";
+
+    /**
+     * The file of the memory-mapped session store
+     */
+    @Value("${spring.application.session.file}")
+    private String sessionFile = "sessions.dat";
+
+    /**
+     * The size of one session in the memory-mapped session store in bytes
+     */
+    @Value("${spring.application.session.slot_size}")
+    private int sessionSlotSize = 16384;
+
+    /**
+     * The maximum number of the sessions in the memory-mapped session store
+     */
+    @Value("${spring.application.session.max_sessions}")
+    private int sessionMaxSessions = 100_000;
+
+    /**
+     * How long before the access token expires it is refreshed
+     */
+    @Value("${spring.application.token_refresh.lead}")
+    private Duration tokenRefreshLead = Duration.ofMinutes(5);
+
+    /**
+     * The maximum random time by which a refresh is moved earlier, so the refreshes are spread out
+     */
+    @Value("${spring.application.token_refresh.jitter}")
+    private Duration tokenRefreshJitter = Duration.ofMinutes(1);
+
+    /**
+     * How long to wait before a failed refresh is retried
+     */
+    @Value("${spring.application.token_refresh.retry_delay}")
+    private Duration tokenRefreshRetryDelay = Duration.ofSeconds(30);
+
+    /**
+     * The maximum number of the refreshes running at the same time
+     */
+    @Value("${spring.application.token_refresh.max_concurrency}")
+    private int tokenRefreshMaxConcurrency = 4;
+
+    /**
+     * How long the verified claims of a bearer token are reused, capped at the expiry of the token
+     */
+    @Value("${spring.application.bearer.cache_ttl}")
+    private Duration bearerCacheTtl = Duration.ofMinutes(5);
+
+    /**
+     * The maximum number of the bearer tokens whose verified claims are cached
+     */
+    @Value("${spring.application.bearer.cache_max_size}")
+    private int bearerCacheMaxSize = 10_000;
+
+    /**
+     * The number of the threads verifying a batch of tokens, or 0 for the number of the processors
+     */
+    @Value("${spring.application.batch.parallelism}")
+    private int batchParallelism = 0;
+
+    /**
+     * The maximum number of the tokens in one batch
+     */
+    @Value("${spring.application.batch.max_tokens}")
+    private int batchMaxTokens = 1000;
+
+    /**
+     * The number of the tokens verified by one task
+     */
+    @Value("${spring.application.batch.chunk_size}")
+    private int batchChunkSize = 32;
+
+    /**
+     * Whether the requests and the calls to Azure AD B2C run on virtual threads
+     */
+    @Value("${spring.threads.virtual.enabled}")
+    private boolean virtualThreads = false;
+
+    /**
+     * Where the state and the nonce are kept during the sign-in, "session" or "cookie"
+     */
+    @Value("${spring.application.auth_state.mode}")
+    private String authStateMode = "session";
+
+    /**
+     * The secret for encrypting the state cookie, shared by all the nodes
+     */
+    @Value("${spring.application.auth_state.secret}")
+    private String authStateSecret = "";
+
+    /**
+     * Whether a random secret known only to this node is used when no secret is set, for a single-node development setup
+     */
+    @Value("${spring.application.auth_state.random_secret}")
+    private boolean authStateRandomSecret = false;
+
+    /**
+     * How long the state and the nonce are accepted after the sign-in started
+     */
+    @Value("${spring.application.auth_state.max_age}")
+    private Duration authStateMaxAge = Duration.ofMinutes(10);
+
+    /**
+     * The maximum number of the sign-ins waiting for the callback from Azure AD B2C
+     */
+    @Value("${spring.application.auth_state.max_pending}")
+    private int authStateMaxPending = 100_000;
+
+    /**
+     * The maximum number of the states consumed from a state cookie and remembered until they expire
+     */
+    @Value("${spring.application.auth_state.max_consumed}")
+    private int authStateMaxConsumed = 100_000;
+
+    /**
+     * Whether a flight recording of the last minutes is kept running and dumped on a slow sign-in
+     */
+    @Value("${spring.application.jfr.enabled}")
+    private boolean jfrEnabled = true;
+
+    /**
+     * A sign-in slower than this dumps the flight recording
+     */
+    @Value("${spring.application.jfr.slow_threshold}")
+    private Duration jfrSlowThreshold = Duration.ofSeconds(2);
+
+    /**
+     * How far back the flight recording goes
+     */
+    @Value("${spring.application.jfr.max_age}")
+    private Duration jfrMaxAge = Duration.ofMinutes(10);
+
+    /**
+     * The maximum size of the flight recording on disk
+     */
+    @Value("${spring.application.jfr.max_size}")
+    private DataSize jfrMaxSize = DataSize.ofMegabytes(64);
+
+    /**
+     * The directory of the dumped flight recordings
+     */
+    @Value("${spring.application.jfr.dump_dir}")
+    private String jfrDumpDir = "jfr";
+
+    /**
+     * The minimum interval between two dumps of the flight recording
+     */
+    @Value("${spring.application.jfr.dump_interval}")
+    private Duration jfrDumpInterval = Duration.ofMinutes(1);
+
+    /**
+     * The number of the dumped flight recordings kept, the oldest ones are deleted
+     */
+    @Value("${spring.application.jfr.max_dumps}")
+    private int jfrMaxDumps = 10;
+
+    /**
+     * Whether an audit record is written for every sign-in, sign-out and failure
+     */
+    @Value("${spring.application.audit.enabled}")
+    private boolean auditEnabled = true;
+
+    /**
+     * The directory of the audit files
+     */
+    @Value("${spring.application.audit.dir}")
+    private String auditDir = "audit";
+
+    /**
+     * The size of one audit file, a new file is started when it is full
+     */
+    @Value("${spring.application.audit.file_size}")
+    private DataSize auditFileSize = DataSize.ofMegabytes(64);
+
+    /**
+     * The number of the audit files kept, the oldest ones are deleted (0 to keep all)
+     */
+    @Value("${spring.application.audit.max_files}")
+    private int auditMaxFiles = 0;
+
+    /**
+     * The number of the audit records waiting for the writer (rounded up to a power of two)
+     */
+    @Value("${spring.application.audit.buffer_size}")
+    private int auditBufferSize = 8192;
+
+    /**
+     * The maximum number of the audit records written at once
+     */
+    @Value("${spring.application.audit.batch_size}")
+    private int auditBatchSize = 256;
+
+    /**
+     * What a request does when the audit buffer is full (wait or drop)
+     */
+    @Value("${spring.application.audit.overflow}")
+    private String auditOverflow = "wait";
+
+    /**
+     * How long a request waits for room in the full audit buffer before the record is dropped
+     */
+    @Value("${spring.application.audit.overflow_timeout}")
+    private Duration auditOverflowTimeout = Duration.ofMillis(10);
+
+    /**
+     * The interval at which the written audit records are forced to the disk
+     */
+    @Value("${spring.application.audit.force_interval}")
+    private Duration auditForceInterval = Duration.ofSeconds(1);
 }
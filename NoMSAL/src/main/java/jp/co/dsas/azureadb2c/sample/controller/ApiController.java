@@ -0,0 +1,57 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.controller;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import jp.co.dsas.azureadb2c.sample.filter.BearerTokenFilter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The sample REST API protected by the access token
+ */
+@RestController
+@RequestMapping("api")
+public class ApiController {
+
+    /**
+     * Return the claims of the caller
+     *
+     * @param jwt The verified access token
+     * @return The subject, the name and the expiry of the token
+     */
+    @GetMapping("me")
+    public Map<String, Object> me(@RequestAttribute(BearerTokenFilter.CLAIMS_ATTRIBUTE) DecodedJWT jwt) {
+        var claims = new LinkedHashMap<String, Object>();
+        claims.put("sub", jwt.getSubject());
+        claims.put("name", jwt.getClaim("name").asString());
+        claims.put("exp", jwt.getExpiresAtAsInstant());
+        return claims;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.controller;
+
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.service.BatchTokenValidator;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * The controller for the validation of many tokens at once.
+ * <p>
+ * It is mapped under /api, so the caller needs a valid bearer token, like the other REST APIs.
+ */
+@RestController
+public class BatchValidationController {
+
+    private final WebAppConfig _webAppConfig;
+
+    private final BatchTokenValidator _validator;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     * @param validator    The batch validator
+     */
+    public BatchValidationController(WebAppConfig webAppConfig, BatchTokenValidator validator) {
+        this._webAppConfig = webAppConfig;
+        this._validator = validator;
+    }
+
+    /**
+     * Validate the tokens
+     *
+     * @param request The tokens
+     * @return The validity and the claims of each token in the order of the tokens
+     */
+    @PostMapping("api/validate/batch")
+    public List<TokenValidation> validateBatch(@RequestBody BatchValidationRequest request) {
+        var tokens = request.getTokens();
+        if (tokens == null || tokens.isEmpty()) {
+            return List.of();
+        }
+        if (tokens.size() > _webAppConfig.getBatchMaxTokens()) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Too many tokens, at most " + _webAppConfig.getBatchMaxTokens());
+        }
+        return _validator.validate(tokens);
+    }
+}
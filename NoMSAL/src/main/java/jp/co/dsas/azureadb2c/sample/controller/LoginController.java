@@ -23,13 +23,15 @@
  */
 package jp.co.dsas.azureadb2c.sample.controller;
 
-import jakarta.servlet.http.HttpSession;
-import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.service.B2cFlowRegistry;
+import jp.co.dsas.azureadb2c.sample.state.AuthStateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.Random;
 import java.util.UUID;
 
@@ -39,62 +41,52 @@ import java.util.UUID;
 @Controller
 public class LoginController {
 
-    private final WebAppConfig _webAppConfig;
+    private static final Logger _logger = LoggerFactory.getLogger(LoginController.class);
 
-    private final HttpSession _session;
+    private final B2cFlowRegistry _flowRegistry;
+
+    private final AuthStateRepository _authStateRepository;
 
     /**
      * Constructor
      *
-     * @param webAppConfig The web app configuration
-     * @param session      The session
+     * @param flowRegistry        The registry of the user flows
+     * @param authStateRepository The repository of the state and nonce
      */
-    public LoginController(WebAppConfig webAppConfig, HttpSession session) {
-        this._webAppConfig = webAppConfig;
-        this._session = session;
+    public LoginController(B2cFlowRegistry flowRegistry, AuthStateRepository authStateRepository) {
+        this._flowRegistry = flowRegistry;
+        this._authStateRepository = authStateRepository;
     }
 
     /**
      * The method for forwarding to the azure ad b2c sign-in page
      *
+     * @param flowName The name of the user flow, or null for the default flow
      * @return The sign-in page
+     * @throws SampleException The exception class for the unknown user flow or when too many sign-ins are in progress
      */
     @GetMapping("login")
-    public String loginView() {
-        // Create the URL for the azure ad b2c sign-in page
-        StringBuilder url = new StringBuilder();
-        url.append("https://");
-        url.append(_webAppConfig.getTenant());
-        url.append(".b2clogin.com/");
-        url.append(_webAppConfig.getTenant());
-        url.append(".onmicrosoft.com/");
-        url.append(_webAppConfig.getUserFlow());
-        url.append("/oauth2/v2.0/authorize?");
-        url.append("client_id=");
-        url.append(_webAppConfig.getClientId());
-        url.append("&response_type=code+id_token");
-        url.append("&redirect_uri=http://localhost:8080/success");
-        url.append("&response_mode=query");
-        url.append("&scope=");
-        String scope = URLEncoder.encode(_webAppConfig.getScope(), StandardCharsets.UTF_8).replace("+", "%20");
-        url.append(scope);
-        url.append("&state=");
+    public String loginView(@RequestParam(name = "flow", required = false) String flowName) throws SampleException {
+        var context = _flowRegistry.get(flowName);
+        if (context == null) {
+            throw new SampleException(SampleException.Reason.UNKNOWN_FLOW, "The user flow is unknown.");
+        }
+
+        // Create the state and nonce for this sign-in
         UUID uuid = UUID.randomUUID();
         String state = uuid.toString();
-        url.append(state);
-        url.append("&nonce=");
         Random random = new Random();
         // nonce can be any alphanumeric string, but here it will be a 5-digit number.
         int num = random.nextInt(10000) + 10000 * (random.nextInt(10) + 1);
-        url.append(num);
 
-        // Save the state and nonce in the session for later verification
-        _session.setAttribute("state", state);
-        _session.setAttribute("nonce", num);
+        // Append them to the prebuilt URL of the azure ad b2c sign-in page
+        String redirectUri = context.endpoints().getSignInUrlPrefix() + state + "&nonce=" + num;
+
+        // Save the state and nonce for later verification
+        _authStateRepository.save(state, num);
 
         // redirect to the azure ad b2c sign-in page
-        String redirectUri = url.toString();
-        System.out.println(redirectUri);
+        _logger.debug("Redirecting to {}", redirectUri);
 
         return "redirect:" + redirectUri;
     }
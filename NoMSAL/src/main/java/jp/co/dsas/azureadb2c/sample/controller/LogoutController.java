@@ -23,10 +23,14 @@
  */
 package jp.co.dsas.azureadb2c.sample.controller;
 
-import jakarta.servlet.http.HttpSession;
-import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.service.B2cFlowRegistry;
+import jp.co.dsas.azureadb2c.sample.state.AuthStateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import java.util.UUID;
 
@@ -36,49 +40,47 @@ import java.util.UUID;
 @Controller
 public class LogoutController {
 
-    private final WebAppConfig _webAppConfig;
+    private static final Logger _logger = LoggerFactory.getLogger(LogoutController.class);
 
-    private final HttpSession _session;
+    private final B2cFlowRegistry _flowRegistry;
+
+    private final AuthStateRepository _authStateRepository;
 
     /**
      * Constructor
      *
-     * @param webAppConfig web app config
-     * @param session      session
+     * @param flowRegistry        registry of the user flows
+     * @param authStateRepository repository of the state
      */
-    public LogoutController(WebAppConfig webAppConfig, HttpSession session) {
-        this._webAppConfig = webAppConfig;
-        this._session = session;
+    public LogoutController(B2cFlowRegistry flowRegistry, AuthStateRepository authStateRepository) {
+        this._flowRegistry = flowRegistry;
+        this._authStateRepository = authStateRepository;
     }
 
     /**
      * Redirect to the azure ad b2c sign-out page
      *
+     * @param flowName The name of the user flow, or null for the default flow
      * @return The sign-out page
+     * @throws SampleException The exception class for the unknown user flow or when too many sign-outs are in progress
      */
     @GetMapping("logout")
-    public String logoutView() {
-        // Create the URL for the azure ad b2c sign-out page
-        StringBuilder url = new StringBuilder();
-        url.append("https://");
-        url.append(_webAppConfig.getTenant());
-        url.append(".b2clogin.com/");
-        url.append(_webAppConfig.getTenant());
-        url.append(".onmicrosoft.com/");
-        url.append(_webAppConfig.getUserFlow());
-        url.append("/oauth2/v2.0/logout?");
-        url.append("redirect_uri=http://localhost:8080/sign_out");
-        url.append("&state=");
+    public String logoutView(@RequestParam(name = "flow", required = false) String flowName) throws SampleException {
+        var context = _flowRegistry.get(flowName);
+        if (context == null) {
+            throw new SampleException(SampleException.Reason.UNKNOWN_FLOW, "The user flow is unknown.");
+        }
+
+        // Append the state to the prebuilt URL of the azure ad b2c sign-out page
         UUID uuid = UUID.randomUUID();
         String state = uuid.toString();
-        url.append(state);
+        String redirectUri = context.endpoints().getSignOutUrlPrefix() + state;
 
-        // Save the state in the session for later verification
-        _session.setAttribute("state", state);
+        // Save the state for later verification
+        _authStateRepository.save(state, null);
 
         // redirect to the azure ad b2c sign-out page
-        String redirectUri = url.toString();
-        System.out.println(redirectUri);
+        _logger.debug("Redirecting to {}", redirectUri);
 
         return "redirect:" + redirectUri;
     }
@@ -23,16 +23,35 @@
  */
 package jp.co.dsas.azureadb2c.sample.controller;
 
+import jp.co.dsas.azureadb2c.sample.Exception.B2cUnavailableException;
 import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInMetrics;
+import org.springframework.http.HttpStatus;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
 /**
  * Error handling for the controller.
  */
 @ControllerAdvice
 public class SampleControllerAdvice {
+
+    /**
+     * The metrics of the sign-in
+     */
+    private final SignInMetrics _metrics;
+
+    /**
+     * Constructor
+     *
+     * @param metrics The metrics of the sign-in
+     */
+    public SampleControllerAdvice(SignInMetrics metrics) {
+        this._metrics = metrics;
+    }
+
     /**
      * Handle the exception.
      *
@@ -42,6 +61,9 @@ public class SampleControllerAdvice {
      */
     @ExceptionHandler(SampleException.class)
     public String handleException(SampleException e, Model model) {
+        // Count the error by the cause.
+        _metrics.countError(e.getReason());
+
         // Save the error message to the model.
         var message = e.getMessage();
         model.addAttribute("message", message);
@@ -49,4 +71,24 @@ public class SampleControllerAdvice {
         // Forward to the error page.
         return "error";
     }
+
+    /**
+     * Handle the call to Azure AD B2C rejected because it is slow or failing.
+     *
+     * @param e     The exception.
+     * @param model model for the user's information
+     * @return The error page with 503 Service Unavailable.
+     */
+    @ExceptionHandler(B2cUnavailableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handleUnavailable(B2cUnavailableException e, Model model) {
+        // Count the error by the cause.
+        _metrics.countError(e.getReason());
+
+        // Save the error message to the model.
+        model.addAttribute("message", e.getMessage());
+
+        // Forward to the error page.
+        return "error";
+    }
 }
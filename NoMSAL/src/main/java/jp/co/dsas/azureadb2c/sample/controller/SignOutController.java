@@ -23,50 +23,91 @@
  */
 package jp.co.dsas.azureadb2c.sample.controller;
 
-import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpServletRequest;
 import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.audit.AuditLog;
+import jp.co.dsas.azureadb2c.sample.service.B2cTokenClient;
+import jp.co.dsas.azureadb2c.sample.service.TokenRefreshService;
+import jp.co.dsas.azureadb2c.sample.state.AuthStateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import java.io.IOException;
+import java.util.Locale;
+
 /**
  * Controller for the log-out page
  */
 @Controller
 public class SignOutController {
 
-    private final HttpSession _session;
+    private static final Logger _logger = LoggerFactory.getLogger(SignOutController.class);
+
+    private final AuthStateRepository _authStateRepository;
+
+    private final TokenRefreshService _tokenRefreshService;
+
+    private final B2cTokenClient _tokenClient;
+
+    private final AuditLog _auditLog;
 
     /**
      * Constructor
      * 
-     * @param session HttpSession
+     * @param authStateRepository The repository of the state
+     * @param tokenRefreshService The service refreshing the tokens
+     * @param tokenClient         The client reading the user from the tokens
+     * @param auditLog            The audit log of the sign-outs
      */
-    public SignOutController(HttpSession session) {
-        this._session = session;
+    public SignOutController(AuthStateRepository authStateRepository, TokenRefreshService tokenRefreshService,
+                             B2cTokenClient tokenClient, AuditLog auditLog) {
+        this._authStateRepository = authStateRepository;
+        this._tokenRefreshService = tokenRefreshService;
+        this._tokenClient = tokenClient;
+        this._auditLog = auditLog;
     }
     
     /**
      * Redirect to the sign-out page
      * 
+     * @param request The request
      * @param state The state for checking the request and response are matched
      * @return The sign-out page
      * @throws SampleException The exception class for the invalid state
      */
     @GetMapping("sign_out")
-    public String signOutView( @RequestParam(name = "state", required = false) String state) throws SampleException {
-        // Get the state from the session
-        String check_state = (String) _session.getAttribute("state");
-        // validate the state, then if state from the request is not equal to the state from the session, forward to an error page
-        if (state == null || !state.equals(check_state)) {
-            // If the state is invalid, forward to an error page
-            // Forward to an error page
-            throw new SampleException("The state is invalid.");
+    public String signOutView(HttpServletRequest request, @RequestParam(name = "state", required = false) String state) throws SampleException {
+        // validate the state, then if state from the request is not equal to the saved state, forward to an error page
+        try {
+            _authStateRepository.consume(state);
+        } catch (SampleException e) {
+            _auditLog.failed(AuditLog.Action.SIGN_OUT, null, e.getReason().name().toLowerCase(Locale.ROOT));
+            throw e;
         }
-        
+
+        // Stop refreshing the tokens of the session, and keep them for the audit record
+        TokenInfo token = null;
+        UserInfo user = null;
+        var session = request.getSession(false);
+        if (session != null) {
+            token = _tokenRefreshService.getTokens(session);
+            _tokenRefreshService.remove(session);
+        }
+        if (token != null && token.getProfileInfoEncoded() != null) {
+            try {
+                user = _tokenClient.readProfile(token);
+            } catch (IOException | IllegalArgumentException e) {
+                _logger.warn("The profile of the signed-out user cannot be read: {}", e.getMessage());
+            }
+        }
+
         // Invalidate the session
-        _session.invalidate();
-        
+        _authStateRepository.invalidate();
+        _auditLog.signedOut(user, token);
+
         // Forward to the sign-out page
         return "out";
     }
@@ -23,37 +23,26 @@
  */
 package jp.co.dsas.azureadb2c.sample.controller;
 
-import com.auth0.jwk.JwkException;
-import com.auth0.jwk.JwkProviderBuilder;
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.exceptions.JWTVerificationException;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpSession;
 import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
-import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import jp.co.dsas.azureadb2c.sample.audit.AuditLog;
+import jp.co.dsas.azureadb2c.sample.jfr.SignInEvent;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInMetrics;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInMetrics.Stage;
+import jp.co.dsas.azureadb2c.sample.service.B2cTokenClient;
+import jp.co.dsas.azureadb2c.sample.service.IdTokenValidator;
+import jp.co.dsas.azureadb2c.sample.service.TokenRefreshService;
+import jp.co.dsas.azureadb2c.sample.state.AuthStateRepository;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.client.RestTemplate;
 
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.security.interfaces.RSAPublicKey;
+import java.io.IOException;
 import java.time.Instant;
-import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.Base64;
-import java.util.HashMap;
 import java.util.Locale;
-import java.util.Map;
 
 /**
  * The controller class for the sign-in success page
@@ -62,187 +51,162 @@ import java.util.Map;
 public class SuccessController {
 
     /**
-     * The configuration class for the user's information
+     * The shared formatter for the local date/time strings
      */
-    private final WebAppConfig _webAppConfig;
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.JAPAN) // Example locale
+                    .withZone(ZoneId.systemDefault());
 
     /**
-     * The session for the user's information
+     * The repository of the state and nonce
      */
-    private final HttpSession _session;
+    private final AuthStateRepository _authStateRepository;
+
+    /**
+     * The validator of the id token
+     */
+    private final IdTokenValidator _idTokenValidator;
+
+    /**
+     * The client for the token endpoint
+     */
+    private final B2cTokenClient _tokenClient;
+
+    /**
+     * The service refreshing the tokens of the sessions
+     */
+    private final TokenRefreshService _tokenRefreshService;
+
+    /**
+     * The metrics of the sign-in
+     */
+    private final SignInMetrics _metrics;
+
+    /**
+     * The audit log of the sign-ins
+     */
+    private final AuditLog _auditLog;
 
     /**
      * Constructor
      *
-     * @param webAppConfig The web app configuration
-     * @param session      The session
+     * @param authStateRepository The repository of the state and nonce
+     * @param idTokenValidator    The validator of the id token
+     * @param tokenClient         The client for the token endpoint
+     * @param tokenRefreshService The service refreshing the tokens
+     * @param metrics             The metrics of the sign-in
+     * @param auditLog            The audit log of the sign-ins
      */
-    public SuccessController(WebAppConfig webAppConfig, HttpSession session) {
-        this._webAppConfig = webAppConfig;
-        this._session = session;
+    public SuccessController(AuthStateRepository authStateRepository, IdTokenValidator idTokenValidator,
+                             B2cTokenClient tokenClient, TokenRefreshService tokenRefreshService,
+                             SignInMetrics metrics, AuditLog auditLog) {
+        this._authStateRepository = authStateRepository;
+        this._idTokenValidator = idTokenValidator;
+        this._tokenClient = tokenClient;
+        this._tokenRefreshService = tokenRefreshService;
+        this._metrics = metrics;
+        this._auditLog = auditLog;
     }
 
     /**
      * the method for authentication and forwarding to the sign-in success page
      *
      * @param model            model for the user's information
+     * @param session          session holding the tokens
      * @param state            state for checking the request and response are matched
      * @param idToken          id token
      * @param code             authorization code
      * @param error            error code.
      * @param errorDescription error description message.
      * @return The sign-in success page
-     * @throws SampleException         The exception class for the invalid state or id token
-     * @throws JsonProcessingException The exception class for the JSON processing
-     * @throws MalformedURLException   The exception class for the invalid URL
-     * @throws JwkException            The exception class for the JSON Web Key
+     * @throws SampleException The exception class for the invalid state or id token
+     * @throws IOException     The exception class for the JSON processing
      */
     @GetMapping("success")
-    public String successView(Model model,
+    public String successView(Model model, HttpSession session,
                               @RequestParam(name = "state", required = false) String state,
                               @RequestParam(name = "id_token", required = false) String idToken,
                               @RequestParam(name = "code", required = false) String code,
                               @RequestParam(name = "error", required = false) String error,
                               @RequestParam(name = "error_description", required = false) String errorDescription)
-            throws SampleException, JsonProcessingException, MalformedURLException, JwkException {
-
-        // Get the state and nonce from the session
-        String check_state = (String) _session.getAttribute("state");
-        // validate the state, then if state from the request is not equal to the state from the session, forward to an error page
-        if (state == null || !state.equals(check_state)) {
-            // If the state is invalid, forward to an error page
-            // Forward to an error page
-            throw new SampleException("The state is invalid.");
-        }
-        // If the error is not null, forward to an error page
-        if (error != null) {
-            throw new SampleException(errorDescription);
-        }
+            throws SampleException, IOException {
 
-        // validate the id token, then if the id token is null, forward to an error page
-        if (idToken == null) {
-            // If the id token is invalid, forward to an error page
-            throw new SampleException("The id token is null.");
-        }
-        // validate the id token, then if the id token is invalid, forward to an error page
-        var nonce = (Integer) _session.getAttribute("nonce");
-        if (!isValidIdToken(idToken, nonce)) {
-            throw new SampleException("The id token is invalid.");
-        }
-
-        // Get the user's name and access token from the id token
-        var template = new RestTemplate();
-        var url = "https://" +
-                _webAppConfig.getTenant() +
-                ".b2clogin.com/" +
-                _webAppConfig.getTenant() +
-                ".onmicrosoft.com/" +
-                _webAppConfig.getUserFlow() +
-                "/oauth2/v2.0/token?grant_type={grant_type}&client_id={client_id}&scope={scope}&code={code}&redirect_uri={redirect_uri}&client_secret={client_secret}";
-
-        Map<String, String> params = new HashMap<>();
-        params.put("grant_type", "authorization_code");
-        params.put("client_id", _webAppConfig.getClientId());
-        String scope = _webAppConfig.getClientId() + " offline_access";
-        params.put("scope", scope);
-        params.put("code", code);
-        params.put("redirect_uri", "urn:ietf:wg:oauth:2.0:oob");
-        params.put("client_secret", _webAppConfig.getSecret());
-        ResponseEntity<String> response = template.exchange(url, HttpMethod.POST, null, String.class, params);
-        String responseBody = response.getBody();
-
-        // Convert to Json strings from HTTP response body.
-        var mapper = new ObjectMapper();
-        var token = mapper.readValue(responseBody, TokenInfo.class);
-
-        // Get the user's name from the profile_info in Json because the profile info is encoded by BASE64.
-        var decoder = Base64.getDecoder();
-        var userInfoString = new String(decoder.decode(token.getProfileInfoEncoded()), StandardCharsets.UTF_8);
-        var userInfo = mapper.readValue(userInfoString, UserInfo.class);
-
-        // Set the user's name, access token, refresh token to the model.
-        var success = new Success();
-        success.setUserName(userInfo.getName());
-        success.setToken(token.getAccessToken());
-        success.setRefreshToken(token.getRefreshToken());
-        // Convert the epoch time when the access token becomes valid to a local date/time string
-        var nbf = Long.parseLong(token.getNotBefore());
-        success.setNbf(_convertEpochToDate(nbf));
-        // Convert the epoch time when the access token becomes invalid to a local date/time string
-        var exp = nbf + Long.parseLong(token.getExpiresIn());
-        success.setExp(_convertEpochToDate(exp));
-        // Convert the epoch time when the refresh token becomes invalid to a local date/time string
-        exp = nbf + Long.parseLong(token.getRefreshTokenExpiresIn());
-        success.setRefreshTokenExp(_convertEpochToDate(exp));
-        
-        model.addAttribute("success", success);
-
-        // forward to the sign-in success page
-        return "success";
-    }
-
-    /**
-     * validate the id token
-     *
-     * @param idToken The id token
-     * @param nonce   The value that application generated randomly
-     * @return true if the id token is valid, otherwise false
-     * @throws SampleException       The exception class for the invalid id token
-     * @throws MalformedURLException The exception class for the invalid URL
-     * @throws JwkException          The exception class for the JSON Web Key
-     */
-    private boolean isValidIdToken(String idToken, Integer nonce) throws SampleException, MalformedURLException, JwkException {
-        // Decode the id token
-        var decodedJwt = JWT.decode(idToken);
-        var kid = decodedJwt.getKeyId();
-
-        // Get public key from the jwk_uri
-        var url = "https://" +
-                _webAppConfig.getTenant() +
-                ".b2clogin.com/" +
-                _webAppConfig.getTenant() +
-                ".onmicrosoft.com/" +
-                _webAppConfig.getUserFlow() +
-                "/discovery/v2.0/keys/";
-        var target = new URL(url);
-        var provider = new JwkProviderBuilder(target).build();
-        var jwk = provider.get(kid);
-        var publicKey = (RSAPublicKey) jwk.getPublicKey();
-
-        // verify by the public key and the id token
-        var algorithm = Algorithm.RSA256(publicKey, null);
-        JWTVerifier verifier = JWT.require(algorithm)
-                .withIssuer(decodedJwt.getClaim("iss").asString())
-                .withSubject(decodedJwt.getClaim("sub").asString())
-                .withClaim("nonce", nonce.toString())     // nonce is String in the id token
-                .withAudience(decodedJwt.getClaim("aud").asString())
-                .build();
+        // The total with the rendering of the page is timed by SignInTimingInterceptor
+        var start = System.nanoTime();
+        var event = new SignInEvent();
+        event.begin();
         try {
-            verifier.verify(idToken);
-            // If the id token valid, return true
-            return true;
-        } catch (JWTVerificationException e) {
-            // If the id token invalid, throw an exception
-            throw new SampleException(e.getMessage());
+            // validate the state, then if state from the request is not equal to the saved state, forward to an error page
+            // and get the nonce saved with the state
+            var nonce = _authStateRepository.consume(state);
+            _metrics.record(Stage.STATE, start);
+            // If the error is not null, forward to an error page
+            if (error != null) {
+                throw new SampleException(SampleException.Reason.B2C_ERROR, errorDescription);
+            }
+
+            // validate the id token, then if the id token is null, forward to an error page
+            if (idToken == null) {
+                // If the id token is invalid, forward to an error page
+                throw new SampleException(SampleException.Reason.NULL_ID_TOKEN, "The id token is null.");
+            }
+            // validate the id token, then if the id token is invalid, forward to an error page
+            // and get the user flow that issued the id token
+            var context = _idTokenValidator.validate(idToken, nonce);
+            event.flow = context.flow().getName();
+
+            // Get the user's name and access token from the id token
+            var stageStart = System.nanoTime();
+            var token = _tokenClient.redeem(context, code);
+            _metrics.record(Stage.TOKEN_POST, stageStart);
+            // Keep the tokens for the session, so the access token is refreshed before it expires
+            _tokenRefreshService.register(session, context, token);
+
+            // Get the user's name from the profile_info in Json because the profile info is encoded by BASE64.
+            stageStart = System.nanoTime();
+            var userInfo = _tokenClient.readProfile(token);
+            _metrics.record(Stage.PARSE_PROFILE, stageStart);
+
+            // Set the user's name, access token, refresh token to the model.
+            var success = new Success();
+            success.setUserName(userInfo.getName());
+            success.setToken(token.getAccessToken());
+            success.setRefreshToken(token.getRefreshToken());
+            // Convert the time when the access token becomes valid to a local date/time string
+            success.setNbf(_convertEpochToDate(token.getNotBeforeInstant()));
+            // Convert the time when the access token becomes invalid to a local date/time string
+            success.setExp(_convertEpochToDate(token.getAccessTokenExpiresAt()));
+            // Convert the time when the refresh token becomes invalid to a local date/time string
+            success.setRefreshTokenExp(_convertEpochToDate(token.getRefreshTokenExpiresAt()));
+            
+            model.addAttribute("success", success);
+            _auditLog.signedIn(event.flow, userInfo, token);
+
+            // forward to the sign-in success page
+            event.outcome = "success";
+            return "success";
+        } catch (SampleException e) {
+            event.outcome = e.getReason().name().toLowerCase(Locale.ROOT);
+            _auditLog.failed(AuditLog.Action.SIGN_IN, event.flow, event.outcome);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            event.outcome = e.getClass().getSimpleName();
+            _auditLog.failed(AuditLog.Action.SIGN_IN, event.flow, event.outcome);
+            throw e;
+        } finally {
+            event.end();
+            event.commit();
         }
     }
 
     /**
-     * Convert the epoch time to the date string
+     * Convert the instant to the date string
      *
-     * @param epochTime The epoch time
+     * @param instant The instant
      * @return The local date string
      */
-    private static String _convertEpochToDate(long epochTime) {
-        Locale locale = Locale.JAPAN; // Example locale
-        
-        // Convert epoch time to LocalDateTime
-        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochSecond(epochTime), ZoneId.systemDefault());
-
-        // Define the date format
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", locale);
-
-        // Format the LocalDateTime to a string
-        return dateTime.format(formatter);
+    private static String _convertEpochToDate(Instant instant) {
+        // Format the instant in the local time zone to a string
+        return DATE_FORMATTER.format(instant);
     }    
 }
@@ -23,14 +23,28 @@
  */
 package jp.co.dsas.azureadb2c.sample.controller;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.Instant;
 
 /**
- * The class for the id token information
+ * The class for the id token information.
+ * The numeric values are parsed once during deserialization, and the instants when the tokens
+ * become valid and invalid are computed as the values are set.
+ * The tokens are kept in the session, so the class is serializable.
  */
 @Data
-public class TokenInfo {
+public class TokenInfo implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     @JsonProperty("access_token")
     private String accessToken;
 
@@ -41,7 +55,7 @@ public class TokenInfo {
     private String idToken;
 
     @JsonProperty("id_token_expires_in")
-    private String idTokenExpiresIn;
+    private long idTokenExpiresIn;
 
     @JsonProperty("scope")
     private String scope;
@@ -53,20 +67,73 @@ public class TokenInfo {
     private String resource;
 
     @JsonProperty("expires_in")
-    private String expiresIn;
+    private long expiresIn;
 
     @JsonProperty("ext_expires_in")
-    private String extExpiresIn;
+    private long extExpiresIn;
 
     @JsonProperty("expires_on")
-    private String expiresOn;
+    private long expiresOn;
 
     @JsonProperty("not_before")
-    private String notBefore;
+    private long notBefore;
 
     @JsonProperty("refresh_token")
     private String refreshToken;
 
     @JsonProperty("refresh_token_expires_in")
-    private String refreshTokenExpiresIn;
+    private long refreshTokenExpiresIn;
+
+    /**
+     * The instant when the access token becomes valid
+     */
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private Instant notBeforeInstant = Instant.EPOCH;
+
+    /**
+     * The instant when the access token becomes invalid
+     */
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private Instant accessTokenExpiresAt = Instant.EPOCH;
+
+    /**
+     * The instant when the refresh token becomes invalid
+     */
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private Instant refreshTokenExpiresAt = Instant.EPOCH;
+
+    /**
+     * Set the epoch time when the access token becomes valid
+     *
+     * @param notBefore The epoch seconds
+     */
+    public void setNotBefore(long notBefore) {
+        this.notBefore = notBefore;
+        this.notBeforeInstant = Instant.ofEpochSecond(notBefore);
+        this.accessTokenExpiresAt = Instant.ofEpochSecond(notBefore + expiresIn);
+        this.refreshTokenExpiresAt = Instant.ofEpochSecond(notBefore + refreshTokenExpiresIn);
+    }
+
+    /**
+     * Set the lifetime of the access token
+     *
+     * @param expiresIn The seconds
+     */
+    public void setExpiresIn(long expiresIn) {
+        this.expiresIn = expiresIn;
+        this.accessTokenExpiresAt = Instant.ofEpochSecond(notBefore + expiresIn);
+    }
+
+    /**
+     * Set the lifetime of the refresh token
+     *
+     * @param refreshTokenExpiresIn The seconds
+     */
+    public void setRefreshTokenExpiresIn(long refreshTokenExpiresIn) {
+        this.refreshTokenExpiresIn = refreshTokenExpiresIn;
+        this.refreshTokenExpiresAt = Instant.ofEpochSecond(notBefore + refreshTokenExpiresIn);
+    }
 }
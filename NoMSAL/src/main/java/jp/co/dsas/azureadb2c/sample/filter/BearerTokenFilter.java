@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.filter;
+
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.NetworkException;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jp.co.dsas.azureadb2c.sample.service.VerifiedClaimsCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * The filter that accepts only the requests with a valid {@code Authorization: Bearer} token.
+ * <p>
+ * The token must be signed by the signing keys of the user flow and issued for this application.
+ * The verified token is set to the request attribute {@link #CLAIMS_ATTRIBUTE}.
+ */
+public class BearerTokenFilter extends OncePerRequestFilter {
+
+    /**
+     * The name of the request attribute holding the verified token
+     */
+    public static final String CLAIMS_ATTRIBUTE = "jp.co.dsas.azureadb2c.sample.filter.BearerTokenFilter.claims";
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final VerifiedClaimsCache _claimsCache;
+
+    /**
+     * Constructor
+     *
+     * @param claimsCache The cache of the verified claims
+     */
+    public BearerTokenFilter(VerifiedClaimsCache claimsCache) {
+        this._claimsCache = claimsCache;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        var authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        try {
+            var jwt = _claimsCache.verify(authorization.substring(BEARER_PREFIX.length()).trim());
+            request.setAttribute(CLAIMS_ATTRIBUTE, jwt);
+        } catch (NetworkException e) {
+            // The signing keys cannot be fetched, so the token is neither accepted nor rejected
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        } catch (JWTVerificationException | JwkException e) {
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+}
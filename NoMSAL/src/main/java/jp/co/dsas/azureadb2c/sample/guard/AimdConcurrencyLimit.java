@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.guard;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The concurrency limit adjusted by additive increase and multiplicative decrease (AIMD).
+ * <p>
+ * Each call that completes quickly raises the limit by {@code 1 / limit}, so the limit grows by
+ * about one per round of calls. A call that fails or takes longer than the latency threshold
+ * lowers the limit by the backoff ratio. A call over the limit is rejected at once instead of
+ * waiting, so a slow Azure AD B2C cannot hold all the request threads.
+ */
+public class AimdConcurrencyLimit {
+
+    /**
+     * The ratio the limit is multiplied by when a call is slow or fails
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private static final int MIN_LIMIT = 1;
+
+    private final int _maxLimit;
+
+    private final long _latencyThresholdNanos;
+
+    private final AtomicInteger _inFlight = new AtomicInteger();
+
+    private volatile double _limit;
+
+    /**
+     * Constructor
+     *
+     * @param initialLimit          The limit at the start
+     * @param maxLimit              The upper bound of the limit
+     * @param latencyThresholdNanos The latency over which a call is treated as slow
+     */
+    public AimdConcurrencyLimit(int initialLimit, int maxLimit, long latencyThresholdNanos) {
+        this._maxLimit = maxLimit;
+        this._latencyThresholdNanos = latencyThresholdNanos;
+        this._limit = Math.max(MIN_LIMIT, Math.min(initialLimit, maxLimit));
+    }
+
+    /**
+     * Take a slot for a call
+     *
+     * @return false if the calls in flight have reached the limit
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            var inFlight = _inFlight.get();
+            if (inFlight >= (int) _limit) {
+                return false;
+            }
+            if (_inFlight.compareAndSet(inFlight, inFlight + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return the slot without adjusting the limit
+     */
+    public void release() {
+        _inFlight.decrementAndGet();
+    }
+
+    /**
+     * Return the slot and adjust the limit by the outcome of the call
+     *
+     * @param latencyNanos The time the call took
+     * @param success      Whether the call succeeded
+     */
+    public synchronized void release(long latencyNanos, boolean success) {
+        _inFlight.decrementAndGet();
+        if (!success || latencyNanos > _latencyThresholdNanos) {
+            _limit = Math.max(MIN_LIMIT, _limit * BACKOFF_RATIO);
+        } else {
+            _limit = Math.min(_maxLimit, _limit + 1.0 / _limit);
+        }
+    }
+
+    /**
+     * Get the current limit
+     *
+     * @return The limit
+     */
+    public int getLimit() {
+        return (int) _limit;
+    }
+
+    /**
+     * Get the number of the calls in flight
+     *
+     * @return The number of the calls
+     */
+    public int getInFlight() {
+        return _inFlight.get();
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.guard;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jp.co.dsas.azureadb2c.sample.Exception.B2cUnavailableException;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * The bulkhead around the calls to Azure AD B2C.
+ * <p>
+ * A call is rejected at once when the circuit breaker is open or when the calls in flight have
+ * reached the adaptive concurrency limit, so a slow or failing Azure AD B2C does not hold the
+ * request threads for the whole socket timeout. The timeouts, the I/O errors and the 5xx
+ * responses count as failures, and the other errors mean that Azure AD B2C is working.
+ * <p>
+ * The idempotent GET requests can also be hedged: when the first request has not answered
+ * within the configured percentile of the recent latencies, a second one is sent and the first
+ * success wins. A failed GET is retried once. The hedges and the retries share a
+ * {@link RetryBudget}, so they cannot multiply the load during an outage. The token requests
+ * are never sent twice, because an authorization code and a refresh token can be redeemed
+ * only once.
+ * <p>
+ * The limit, the calls in flight, the state of the circuit, the rejections, the hedges and the
+ * retries are published as metrics under {@code b2c.guard}.
+ */
+@Component
+public class B2cCallGuard {
+
+    private static final Logger _logger = LoggerFactory.getLogger(B2cCallGuard.class);
+
+    private final AimdConcurrencyLimit _limit;
+
+    private final CircuitBreaker _circuitBreaker;
+
+    private final long _latencyThresholdNanos;
+
+    private final Counter _rejectedByLimit;
+
+    private final Counter _rejectedByCircuit;
+
+    private final boolean _hedgeEnabled;
+
+    private final int _hedgePercentile;
+
+    private final long _hedgeMinDelayNanos;
+
+    private final LatencyTracker _latencies = new LatencyTracker(128);
+
+    private final RetryBudget _retryBudget;
+
+    /**
+     * The threads running the hedged requests
+     */
+    private final ExecutorService _hedgeExecutor;
+
+    private final Counter _hedges;
+
+    private final Counter _retries;
+
+    private final Counter _budgetExhausted;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig  The web app configuration
+     * @param meterRegistry The registry of the metrics
+     */
+    public B2cCallGuard(WebAppConfig webAppConfig, MeterRegistry meterRegistry) {
+        this._latencyThresholdNanos = webAppConfig.getB2cGuardLatencyThreshold().toNanos();
+        this._limit = new AimdConcurrencyLimit(webAppConfig.getB2cGuardInitialLimit(),
+                webAppConfig.getB2cGuardMaxLimit(), _latencyThresholdNanos);
+        this._circuitBreaker = new CircuitBreaker(webAppConfig.getB2cGuardWindowSize(),
+                webAppConfig.getB2cGuardFailureRateThreshold(),
+                webAppConfig.getB2cGuardOpenDuration().toMillis(),
+                (from, to) -> {
+                    _logger.warn("The circuit to Azure AD B2C changed from {} to {}", from, to);
+                    meterRegistry.counter("b2c.guard.circuit.transitions", "from", from.name(), "to", to.name())
+                            .increment();
+                });
+
+        Gauge.builder("b2c.guard.in_flight", _limit, AimdConcurrencyLimit::getInFlight)
+                .description("The calls to Azure AD B2C in flight")
+                .register(meterRegistry);
+        Gauge.builder("b2c.guard.limit", _limit, AimdConcurrencyLimit::getLimit)
+                .description("The adaptive limit of the calls to Azure AD B2C in flight")
+                .register(meterRegistry);
+        Gauge.builder("b2c.guard.circuit.state", _circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("The state of the circuit to Azure AD B2C: 0 closed, 1 open, 2 half open")
+                .register(meterRegistry);
+        this._rejectedByLimit = Counter.builder("b2c.guard.rejections").tag("reason", "limit").register(meterRegistry);
+        this._rejectedByCircuit = Counter.builder("b2c.guard.rejections").tag("reason", "circuit").register(meterRegistry);
+
+        this._hedgeEnabled = webAppConfig.isB2cGuardHedgeEnabled();
+        this._hedgePercentile = webAppConfig.getB2cGuardHedgePercentile();
+        this._hedgeMinDelayNanos = webAppConfig.getB2cGuardHedgeMinDelay().toNanos();
+        this._retryBudget = new RetryBudget(webAppConfig.getB2cGuardRetryBudgetRatio(),
+                webAppConfig.getB2cGuardRetryBudgetMinPerSecond());
+        this._hedgeExecutor = webAppConfig.isVirtualThreads()
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("b2c-hedge-", 0).factory())
+                : Executors.newCachedThreadPool(Thread.ofPlatform().name("b2c-hedge-", 0).daemon().factory());
+        this._hedges = meterRegistry.counter("b2c.guard.hedges");
+        this._retries = meterRegistry.counter("b2c.guard.retries");
+        this._budgetExhausted = meterRegistry.counter("b2c.guard.retry_budget.exhausted");
+    }
+
+    /**
+     * Stop the threads of the hedged requests
+     */
+    @PreDestroy
+    public void stop() {
+        _hedgeExecutor.shutdownNow();
+    }
+
+    /**
+     * Run the call to Azure AD B2C in the bulkhead
+     *
+     * @param call The call
+     * @param <T>  The type of the result
+     * @return The result of the call
+     * @throws B2cUnavailableException The exception class when the call is rejected
+     */
+    public <T> T execute(Supplier<T> call) throws B2cUnavailableException {
+        if (!_limit.tryAcquire()) {
+            _rejectedByLimit.increment();
+            throw new B2cUnavailableException("Too many calls to Azure AD B2C are in progress.");
+        }
+        if (!_circuitBreaker.tryAcquire()) {
+            _limit.release();
+            _rejectedByCircuit.increment();
+            throw new B2cUnavailableException("Azure AD B2C is not responding.");
+        }
+
+        var start = System.nanoTime();
+        var success = false;
+        try {
+            var result = call.get();
+            success = true;
+            return result;
+        } catch (ResourceAccessException | HttpServerErrorException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // Azure AD B2C has answered, for example with 400 for an invalid code
+            success = true;
+            throw e;
+        } finally {
+            var latency = System.nanoTime() - start;
+            _limit.release(latency, success);
+            _circuitBreaker.record(success && latency <= _latencyThresholdNanos);
+        }
+    }
+
+    /**
+     * Run the idempotent call to Azure AD B2C in the bulkhead, hedging it when it is slow and
+     * retrying it once when it fails, as far as the retry budget allows
+     *
+     * @param call The idempotent call
+     * @param <T>  The type of the result
+     * @return The result of the first successful attempt
+     * @throws B2cUnavailableException The exception class when the call is rejected
+     */
+    public <T> T executeIdempotent(Supplier<T> call) throws B2cUnavailableException {
+        _retryBudget.recordRequest();
+        if (_hedgeEnabled) {
+            var first = _submit(call);
+            var delay = Math.max(_hedgeMinDelayNanos, _latencies.percentile(_hedgePercentile, _latencyThresholdNanos));
+            try {
+                return first.get(delay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (_retryBudget.tryAcquire()) {
+                    _hedges.increment();
+                    return _join(_firstSuccess(first, _submit(call)));
+                }
+                _budgetExhausted.increment();
+                return _join(first);
+            } catch (ExecutionException e) {
+                return _retry(call, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new B2cUnavailableException("Interrupted while calling Azure AD B2C.");
+            }
+        }
+
+        try {
+            return _timed(call);
+        } catch (RuntimeException e) {
+            return _retry(call, e);
+        }
+    }
+
+    /**
+     * Get the state of the circuit
+     *
+     * @return The state
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return _circuitBreaker.getState();
+    }
+
+    /**
+     * Retry the failed call once if the failure is transient and the budget allows
+     *
+     * @param call    The call
+     * @param failure The failure of the first attempt
+     * @param <T>     The type of the result
+     * @return The result of the retry
+     * @throws B2cUnavailableException The exception class when the call is rejected
+     */
+    private <T> T _retry(Supplier<T> call, Throwable failure) throws B2cUnavailableException {
+        if (failure instanceof B2cUnavailableException unavailable) {
+            throw unavailable;
+        }
+        if (!(failure instanceof ResourceAccessException) && !(failure instanceof HttpServerErrorException)) {
+            throw (RuntimeException) failure;
+        }
+        if (!_retryBudget.tryAcquire()) {
+            _budgetExhausted.increment();
+            throw (RuntimeException) failure;
+        }
+        _retries.increment();
+        return _timed(call);
+    }
+
+    /**
+     * Run the call in the bulkhead and record its latency
+     */
+    private <T> T _timed(Supplier<T> call) throws B2cUnavailableException {
+        var start = System.nanoTime();
+        try {
+            return execute(call);
+        } finally {
+            _latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Start an attempt of the call on the hedge threads
+     */
+    private <T> CompletableFuture<T> _submit(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return _timed(call);
+            } catch (B2cUnavailableException e) {
+                throw new CompletionException(e);
+            }
+        }, _hedgeExecutor);
+    }
+
+    /**
+     * Complete with the first successful attempt, or with the failure of the last one
+     */
+    private static <T> CompletableFuture<T> _firstSuccess(CompletableFuture<T> first, CompletableFuture<T> second) {
+        var result = new CompletableFuture<T>();
+        var failures = new AtomicInteger();
+        BiConsumer<T, Throwable> handler = (value, e) -> {
+            if (e == null) {
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(e);
+            }
+        };
+        first.whenComplete(handler);
+        second.whenComplete(handler);
+        return result;
+    }
+
+    /**
+     * Wait for the attempt and unwrap its failure
+     */
+    private static <T> T _join(CompletableFuture<T> future) throws B2cUnavailableException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            var cause = e.getCause();
+            if (cause instanceof CompletionException nested) {
+                cause = nested.getCause();
+            }
+            if (cause instanceof B2cUnavailableException unavailable) {
+                throw unavailable;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.guard;
+
+import java.util.function.BiConsumer;
+
+/**
+ * The circuit breaker over the outcomes of the last calls.
+ * <p>
+ * The circuit opens when the failure rate of the last calls reaches the threshold, and the calls
+ * are rejected while it is open. After the open duration one trial call is let through: the
+ * circuit closes if it succeeds and opens again if it fails.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The state of the circuit
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int _failureRateThreshold;
+
+    private final long _openDurationMillis;
+
+    /**
+     * The outcomes of the last calls, true for a failure
+     */
+    private final boolean[] _window;
+
+    private final BiConsumer<State, State> _listener;
+
+    private int _next;
+
+    private int _recorded;
+
+    private int _failures;
+
+    private State _state = State.CLOSED;
+
+    private long _openedAt;
+
+    private boolean _trialInFlight;
+
+    /**
+     * Constructor
+     *
+     * @param windowSize           The number of the last calls whose outcomes are counted
+     * @param failureRateThreshold The failure rate in percent at which the circuit opens
+     * @param openDurationMillis   How long the circuit stays open before a trial call
+     * @param listener             The listener of the state transitions, called with the old and the new state
+     */
+    public CircuitBreaker(int windowSize, int failureRateThreshold, long openDurationMillis,
+                          BiConsumer<State, State> listener) {
+        this._window = new boolean[windowSize];
+        this._failureRateThreshold = failureRateThreshold;
+        this._openDurationMillis = openDurationMillis;
+        this._listener = listener;
+    }
+
+    /**
+     * Check whether a call is allowed
+     *
+     * @return false if the circuit is open
+     */
+    public synchronized boolean tryAcquire() {
+        switch (_state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - _openedAt < _openDurationMillis) {
+                    return false;
+                }
+                _transition(State.HALF_OPEN);
+                _trialInFlight = true;
+                return true;
+            default:
+                // Only one trial call at a time while half open
+                if (_trialInFlight) {
+                    return false;
+                }
+                _trialInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * Record the outcome of an allowed call
+     *
+     * @param success Whether the call succeeded
+     */
+    public synchronized void record(boolean success) {
+        if (_state == State.HALF_OPEN) {
+            _trialInFlight = false;
+            if (success) {
+                _reset();
+                _transition(State.CLOSED);
+            } else {
+                _open();
+            }
+            return;
+        }
+        if (_state == State.OPEN) {
+            return;
+        }
+
+        if (_recorded == _window.length) {
+            if (_window[_next]) {
+                _failures--;
+            }
+        } else {
+            _recorded++;
+        }
+        _window[_next] = !success;
+        if (!success) {
+            _failures++;
+        }
+        _next = (_next + 1) % _window.length;
+
+        // Wait for a full window, so a few failures right after the start do not open the circuit
+        if (_recorded == _window.length && _failures * 100 >= _failureRateThreshold * _window.length) {
+            _open();
+        }
+    }
+
+    /**
+     * Get the current state
+     *
+     * @return The state
+     */
+    public synchronized State getState() {
+        return _state;
+    }
+
+    private void _open() {
+        _openedAt = System.currentTimeMillis();
+        _reset();
+        _transition(State.OPEN);
+    }
+
+    private void _reset() {
+        _next = 0;
+        _recorded = 0;
+        _failures = 0;
+    }
+
+    private void _transition(State state) {
+        var old = _state;
+        _state = state;
+        if (old != state) {
+            _listener.accept(old, state);
+        }
+    }
+}
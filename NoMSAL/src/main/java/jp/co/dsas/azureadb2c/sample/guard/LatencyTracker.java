@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.guard;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latencies of the last calls, kept in a ring to estimate a percentile
+ */
+public class LatencyTracker {
+
+    /**
+     * The number of the samples needed before the percentile is trusted
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[] _samples;
+
+    private final AtomicLong _count = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param size The number of the last calls kept
+     */
+    public LatencyTracker(int size) {
+        this._samples = new long[size];
+    }
+
+    /**
+     * Record the latency of a call
+     *
+     * @param latencyNanos The latency
+     */
+    public void record(long latencyNanos) {
+        var index = _count.getAndIncrement();
+        _samples[(int) (index % _samples.length)] = latencyNanos;
+    }
+
+    /**
+     * Estimate the percentile of the latencies
+     *
+     * @param percentile   The percentile, from 1 to 100
+     * @param defaultNanos The value used until enough calls are recorded
+     * @return The latency at the percentile
+     */
+    public long percentile(int percentile, long defaultNanos) {
+        var size = (int) Math.min(_count.get(), _samples.length);
+        if (size < MIN_SAMPLES) {
+            return defaultNanos;
+        }
+        var sorted = Arrays.copyOf(_samples, size);
+        Arrays.sort(sorted);
+        var index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+}
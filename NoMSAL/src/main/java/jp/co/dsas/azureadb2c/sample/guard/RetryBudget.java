@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.guard;
+
+/**
+ * The budget shared by all the retries and hedged requests to Azure AD B2C.
+ * <p>
+ * Each original request adds a fraction of a retry to the budget, and a small number of retries
+ * per second are always allowed. A retry is made only while the budget lasts, so the retries
+ * add at most that fraction to the load when Azure AD B2C is failing.
+ */
+public class RetryBudget {
+
+    private final double _ratio;
+
+    private final double _minPerSecond;
+
+    private final double _maxBalance;
+
+    private double _balance;
+
+    private long _refilledAt = System.nanoTime();
+
+    /**
+     * Constructor
+     *
+     * @param ratio        The retries allowed for each original request
+     * @param minPerSecond The retries allowed per second regardless of the requests
+     */
+    public RetryBudget(double ratio, double minPerSecond) {
+        this._ratio = ratio;
+        this._minPerSecond = minPerSecond;
+        // Do not let a quiet period build up a burst of retries
+        this._maxBalance = Math.max(1.0, minPerSecond) * 10;
+    }
+
+    /**
+     * Record an original request
+     */
+    public synchronized void recordRequest() {
+        _refill();
+        _balance = Math.min(_maxBalance, _balance + _ratio);
+    }
+
+    /**
+     * Take one retry from the budget
+     *
+     * @return false if the budget is exhausted
+     */
+    public synchronized boolean tryAcquire() {
+        _refill();
+        if (_balance < 1.0) {
+            return false;
+        }
+        _balance -= 1.0;
+        return true;
+    }
+
+    private void _refill() {
+        var now = System.nanoTime();
+        _balance = Math.min(_maxBalance, _balance + (now - _refilledAt) / 1e9 * _minPerSecond);
+        _refilledAt = now;
+    }
+}
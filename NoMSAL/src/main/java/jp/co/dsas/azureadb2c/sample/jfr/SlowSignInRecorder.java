@@ -0,0 +1,176 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.jfr;
+
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The flight recording that is always running and dumped when a sign-in is slow.
+ * <p>
+ * The recording uses the low-overhead "default" settings of the JDK with the sign-in events enabled,
+ * and keeps only the last minutes on disk. When a sign-in takes longer than the threshold, the
+ * recording is copied to a file in the background, so the timeline of the slow request, the GC and
+ * the threads around it can be read with JDK Mission Control or {@code jfr print} without attaching
+ * a profiler. The dumps are rate-limited and the oldest ones are deleted.
+ */
+@Component
+public class SlowSignInRecorder {
+
+    private static final Logger _logger = LoggerFactory.getLogger(SlowSignInRecorder.class);
+
+    private static final String DUMP_PREFIX = "slow-sign-in-";
+
+    private static final DateTimeFormatter DUMP_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final WebAppConfig _webAppConfig;
+
+    /**
+     * The running recording, or null if it is disabled
+     */
+    private final Recording _recording;
+
+    /**
+     * The thread copying the recording to the files
+     */
+    private final ExecutorService _dumpExecutor;
+
+    /**
+     * The value of {@link System#nanoTime()} before which the recording is not dumped again
+     */
+    private final AtomicLong _nextDumpAt = new AtomicLong(System.nanoTime());
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     */
+    public SlowSignInRecorder(WebAppConfig webAppConfig) {
+        this._webAppConfig = webAppConfig;
+        if (!webAppConfig.isJfrEnabled()) {
+            this._recording = null;
+            this._dumpExecutor = null;
+            return;
+        }
+
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("default"));
+        } catch (IOException | ParseException e) {
+            _logger.warn("The default settings of the flight recorder cannot be read, only the sign-in events are recorded: {}",
+                    e.getMessage());
+            recording = new Recording();
+        }
+        recording.setName("slow-sign-in");
+        recording.setToDisk(true);
+        recording.setMaxAge(webAppConfig.getJfrMaxAge());
+        recording.setMaxSize(webAppConfig.getJfrMaxSize().toBytes());
+        for (var eventClass : List.of(SignInEvent.class, KeyLookupEvent.class, IdTokenVerificationEvent.class,
+                TokenExchangeEvent.class, ViewRenderEvent.class)) {
+            recording.enable(eventClass);
+        }
+        recording.start();
+        this._recording = recording;
+        this._dumpExecutor = Executors.newSingleThreadExecutor(
+                Thread.ofPlatform().name("jfr-dump").daemon().factory());
+    }
+
+    /**
+     * Dump the recording if the sign-in was slow
+     *
+     * @param startNanos The value of {@link System#nanoTime()} when the sign-in started
+     */
+    public void onSignIn(long startNanos) {
+        if (_recording == null) {
+            return;
+        }
+        var now = System.nanoTime();
+        var elapsed = now - startNanos;
+        if (elapsed < _webAppConfig.getJfrSlowThreshold().toNanos()) {
+            return;
+        }
+        // Only one of the slow sign-ins in the interval dumps the recording
+        var nextDumpAt = _nextDumpAt.get();
+        if (now - nextDumpAt < 0
+                || !_nextDumpAt.compareAndSet(nextDumpAt, now + _webAppConfig.getJfrDumpInterval().toNanos())) {
+            return;
+        }
+        _dumpExecutor.execute(() -> _dump(elapsed));
+    }
+
+    /**
+     * Stop the recording
+     */
+    @PreDestroy
+    public void stop() {
+        if (_recording != null) {
+            _dumpExecutor.shutdownNow();
+            _recording.close();
+        }
+    }
+
+    /**
+     * Copy the recording to a new file and delete the oldest files
+     *
+     * @param elapsed The nanoseconds taken by the slow sign-in
+     */
+    private void _dump(long elapsed) {
+        var dir = Path.of(_webAppConfig.getJfrDumpDir());
+        var file = dir.resolve(DUMP_PREFIX + LocalDateTime.now().format(DUMP_TIMESTAMP) + ".jfr");
+        try {
+            Files.createDirectories(dir);
+            _recording.dump(file);
+            _logger.warn("A sign-in took {} ms, the flight recording is dumped to {}", elapsed / 1_000_000, file);
+
+            // The timestamps in the names sort the dumps from the oldest
+            try (var files = Files.list(dir)) {
+                var dumps = files
+                        .filter(path -> path.getFileName().toString().startsWith(DUMP_PREFIX))
+                        .sorted()
+                        .toList();
+                for (int i = 0; i < dumps.size() - _webAppConfig.getJfrMaxDumps(); i++) {
+                    Files.deleteIfExists(dumps.get(i));
+                }
+            }
+        } catch (IOException e) {
+            _logger.warn("Failed to dump the flight recording to {}: {}", file, e.getMessage());
+        }
+    }
+}
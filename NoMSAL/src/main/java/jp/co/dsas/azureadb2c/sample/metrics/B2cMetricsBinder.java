@@ -0,0 +1,87 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.service.TokenRefreshService;
+import jp.co.dsas.azureadb2c.sample.service.VerifiedClaimsCache;
+import jp.co.dsas.azureadb2c.sample.state.PendingAuthorizationStore;
+import org.springframework.stereotype.Component;
+
+/**
+ * The gauges of the stores and the outbound connections.
+ * <p>
+ * The JDK HTTP client does not publish the state of its connection pool, so the configured
+ * size of the pool is published next to the calls in flight ({@code b2c.guard.in_flight}).
+ */
+@Component
+public class B2cMetricsBinder implements MeterBinder {
+
+    private final WebAppConfig _webAppConfig;
+
+    private final PendingAuthorizationStore _pendingStore;
+
+    private final TokenRefreshService _tokenRefreshService;
+
+    private final VerifiedClaimsCache _claimsCache;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig        The web app configuration
+     * @param pendingStore        The store of the sign-ins in progress
+     * @param tokenRefreshService The service refreshing the tokens
+     * @param claimsCache         The cache of the verified claims
+     */
+    public B2cMetricsBinder(WebAppConfig webAppConfig, PendingAuthorizationStore pendingStore,
+                            TokenRefreshService tokenRefreshService, VerifiedClaimsCache claimsCache) {
+        this._webAppConfig = webAppConfig;
+        this._pendingStore = pendingStore;
+        this._tokenRefreshService = tokenRefreshService;
+        this._claimsCache = claimsCache;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("b2c.auth_state.pending", _pendingStore, PendingAuthorizationStore::size)
+                .description("The sign-ins waiting for the callback from Azure AD B2C")
+                .register(registry);
+        Gauge.builder("b2c.auth_state.consumed", _pendingStore, PendingAuthorizationStore::consumedSize)
+                .description("The states of the state cookies used recently, remembered to reject a replay")
+                .register(registry);
+        Gauge.builder("b2c.token_refresh.sessions", _tokenRefreshService, TokenRefreshService::size)
+                .description("The sessions whose tokens are refreshed in the background")
+                .register(registry);
+        Gauge.builder("b2c.cache.size", _claimsCache, VerifiedClaimsCache::size)
+                .tag("cache", "bearer_claims")
+                .description("The entries in the cache")
+                .register(registry);
+        Gauge.builder("b2c.http.connections.max", _webAppConfig, WebAppConfig::getHttpMaxConnections)
+                .description("The maximum number of the idle connections to Azure AD B2C kept in the pool")
+                .register(registry);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of the sign-in pipeline.
+ * <p>
+ * Each stage is timed by {@code b2c.signin.stage} with a percentile histogram, and each cause
+ * of {@link SampleException} is counted by {@code b2c.signin.errors}. The timers and the
+ * counters are registered once, so recording one is a single array lookup.
+ */
+@Component
+public class SignInMetrics {
+
+    /**
+     * The stage of the sign-in
+     */
+    public enum Stage {
+        STATE, KEY_LOOKUP, VERIFY, TOKEN_POST, PARSE_PROFILE, TOTAL
+    }
+
+    private final Timer[] _stageTimers = new Timer[Stage.values().length];
+
+    private final Counter[] _errorCounters = new Counter[SampleException.Reason.values().length];
+
+    /**
+     * Constructor
+     *
+     * @param meterRegistry The registry of the metrics
+     */
+    public SignInMetrics(MeterRegistry meterRegistry) {
+        for (var stage : Stage.values()) {
+            _stageTimers[stage.ordinal()] = Timer.builder("b2c.signin.stage")
+                    .description("The time taken by the stage of the sign-in")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+        }
+        for (var reason : SampleException.Reason.values()) {
+            _errorCounters[reason.ordinal()] = Counter.builder("b2c.signin.errors")
+                    .description("The sign-ins failed by the cause")
+                    .tag("reason", reason.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Record the time taken by the stage
+     *
+     * @param stage      The stage
+     * @param startNanos The value of {@link System#nanoTime()} when the stage started
+     */
+    public void record(Stage stage, long startNanos) {
+        _stageTimers[stage.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Count the failure
+     *
+     * @param reason The cause of the failure
+     */
+    public void countError(SampleException.Reason reason) {
+        _errorCounters[reason.ordinal()].increment();
+    }
+}
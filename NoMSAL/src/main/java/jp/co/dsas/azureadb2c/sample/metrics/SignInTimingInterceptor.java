@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.metrics;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jp.co.dsas.azureadb2c.sample.jfr.SlowSignInRecorder;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInMetrics.Stage;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * The interceptor that times the whole sign-in callback, including the rendering of the page,
+ * by the total stage of {@link SignInMetrics}, and dumps the flight recording when it was slow.
+ * The total includes the failed sign-ins, which are counted by the cause in the controller advice.
+ */
+public class SignInTimingInterceptor implements HandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = SignInTimingInterceptor.class.getName() + ".start";
+
+    private final SignInMetrics _metrics;
+
+    private final SlowSignInRecorder _slowSignInRecorder;
+
+    /**
+     * Constructor
+     *
+     * @param metrics            The metrics of the sign-in
+     * @param slowSignInRecorder The flight recording dumped on a slow sign-in
+     */
+    public SignInTimingInterceptor(SignInMetrics metrics, SlowSignInRecorder slowSignInRecorder) {
+        this._metrics = metrics;
+        this._slowSignInRecorder = slowSignInRecorder;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        // The view has been rendered, so this is the time the user waited for the page
+        if (request.getAttribute(START_ATTRIBUTE) instanceof Long start) {
+            _metrics.record(Stage.TOTAL, start);
+            _slowSignInRecorder.onSignIn(start);
+        }
+    }
+}
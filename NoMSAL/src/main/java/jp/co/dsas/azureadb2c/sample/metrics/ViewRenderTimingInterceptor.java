@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jp.co.dsas.azureadb2c.sample.jfr.ViewRenderEvent;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The interceptor that times the rendering of the templates by {@code b2c.view.render}
+ * and by {@link ViewRenderEvent}.
+ * The view is rendered between {@link #postHandle} and {@link #afterCompletion}.
+ */
+public class ViewRenderTimingInterceptor implements HandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = ViewRenderTimingInterceptor.class.getName() + ".start";
+
+    private static final String VIEW_ATTRIBUTE = ViewRenderTimingInterceptor.class.getName() + ".view";
+
+    private static final String EVENT_ATTRIBUTE = ViewRenderTimingInterceptor.class.getName() + ".event";
+
+    private final MeterRegistry _meterRegistry;
+
+    /**
+     * The timers by the view name, so a timer is built only for the first rendering of the view
+     */
+    private final ConcurrentHashMap<String, Timer> _timers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param meterRegistry The registry of the metrics
+     */
+    public ViewRenderTimingInterceptor(MeterRegistry meterRegistry) {
+        this._meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        // The redirects are not rendered, and their URLs would make too many tags
+        if (modelAndView != null && modelAndView.getViewName() != null
+                && !modelAndView.getViewName().startsWith("redirect:")) {
+            request.setAttribute(VIEW_ATTRIBUTE, modelAndView.getViewName());
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+            var event = new ViewRenderEvent();
+            event.begin();
+            request.setAttribute(EVENT_ATTRIBUTE, event);
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(START_ATTRIBUTE) instanceof Long start) {
+            _timers.computeIfAbsent((String) request.getAttribute(VIEW_ATTRIBUTE), this::_timer)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (request.getAttribute(EVENT_ATTRIBUTE) instanceof ViewRenderEvent event) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.view = (String) request.getAttribute(VIEW_ATTRIBUTE);
+                event.outcome = ex == null ? "success" : ex.getClass().getSimpleName();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Build the timer of the view
+     *
+     * @param view The view name
+     * @return The timer
+     */
+    private Timer _timer(String view) {
+        return Timer.builder("b2c.view.render")
+                .description("The time taken by rendering the template")
+                .tag("view", view)
+                .publishPercentileHistogram()
+                .register(_meterRegistry);
+    }
+}
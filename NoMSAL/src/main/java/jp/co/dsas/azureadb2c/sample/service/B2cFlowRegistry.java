@@ -0,0 +1,271 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.auth0.jwk.JwkException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jp.co.dsas.azureadb2c.sample.Exception.B2cUnavailableException;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlow;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlowProperties;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.guard.B2cCallGuard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The registry of the user flows served by this application.
+ * <p>
+ * Each flow has its own endpoints, signing keys and verifiers. The endpoints are taken from the
+ * discovery document of the flow, which is refreshed in the background. The flows are held in immutable
+ * maps, so a lookup by the flow name, or by the tenant and the {@code tfp}/{@code acr} claim of a token,
+ * is a single hash lookup. The same user flow name can be served for several tenants. When no flow is
+ * configured, the top-level settings form the only flow, named {@value #DEFAULT_FLOW_NAME}.
+ */
+@Component
+public class B2cFlowRegistry {
+
+    private static final Logger _logger = LoggerFactory.getLogger(B2cFlowRegistry.class);
+
+    /**
+     * The name of the flow formed by the top-level settings
+     */
+    public static final String DEFAULT_FLOW_NAME = "default";
+
+    /**
+     * The flows by the name in the configuration
+     */
+    private final Map<String, FlowContext> _byName;
+
+    /**
+     * The flows by the tenant id and the user flow name in lower case, because the case in the claims can differ
+     * from the configuration
+     */
+    private final Map<FlowKey, FlowContext> _byUserFlow;
+
+    private final List<FlowContext> _flows;
+
+    private final FlowContext _defaultFlow;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig   The web app configuration
+     * @param flowProperties The configuration of the user flows
+     * @param restTemplate   The shared REST client
+     * @param guard          The bulkhead around the calls to Azure AD B2C
+     * @param objectMapper   The JSON mapper
+     * @param meterRegistry  The registry of the metrics
+     */
+    public B2cFlowRegistry(WebAppConfig webAppConfig, B2cFlowProperties flowProperties, RestTemplate restTemplate,
+                           B2cCallGuard guard, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        var flows = new ArrayList<FlowContext>();
+        if (flowProperties.getFlows().isEmpty()) {
+            flows.add(_createContext(new B2cFlow(DEFAULT_FLOW_NAME, webAppConfig.getTenant(), webAppConfig.getTenantId(),
+                    webAppConfig.getClientId(), webAppConfig.getSecret(), webAppConfig.getUserFlow(),
+                    webAppConfig.getScope(), webAppConfig.getAuthorityHost()), webAppConfig, restTemplate, guard,
+                    objectMapper, meterRegistry));
+        } else {
+            flowProperties.getFlows().forEach((name, properties) -> flows.add(_createContext(new B2cFlow(name,
+                    _orDefault(properties.getTenant(), webAppConfig.getTenant()),
+                    _orDefault(properties.getTenantId(), webAppConfig.getTenantId()),
+                    _orDefault(properties.getClientId(), webAppConfig.getClientId()),
+                    _orDefault(properties.getSecret(), webAppConfig.getSecret()),
+                    _orDefault(properties.getUserFlow(), webAppConfig.getUserFlow()),
+                    _orDefault(properties.getScope(), webAppConfig.getScope()),
+                    _orDefault(properties.getAuthorityHost(), webAppConfig.getAuthorityHost())), webAppConfig,
+                    restTemplate, guard, objectMapper, meterRegistry)));
+        }
+
+        var byName = new HashMap<String, FlowContext>();
+        var byUserFlow = new HashMap<FlowKey, FlowContext>();
+        var ambiguous = new HashSet<FlowKey>();
+        for (var context : flows) {
+            byName.put(context.flow().getName(), context);
+            var key = FlowKey.of(context.flow().getTenantId(), context.flow().getUserFlow());
+            if (byUserFlow.putIfAbsent(key, context) != null) {
+                ambiguous.add(key);
+            }
+        }
+        // A user flow configured twice for the same tenant cannot be told from the claims of a token
+        for (var key : ambiguous) {
+            byUserFlow.remove(key);
+            _logger.warn("The user flow {} of the tenant {} is configured more than once and is not selected by the claims of a token.",
+                    key.userFlow(), key.tenantId());
+        }
+        this._byName = Map.copyOf(byName);
+        this._byUserFlow = Map.copyOf(byUserFlow);
+        this._flows = List.copyOf(flows);
+        this._defaultFlow = flows.get(0);
+    }
+
+    /**
+     * Get the flow by the name in the configuration
+     *
+     * @param name The name of the flow, or null for the default flow
+     * @return The flow, or null if the name is unknown
+     */
+    public FlowContext get(String name) {
+        return name == null ? _defaultFlow : _byName.get(name);
+    }
+
+    /**
+     * Get the default flow
+     *
+     * @return The default flow
+     */
+    public FlowContext getDefault() {
+        return _defaultFlow;
+    }
+
+    /**
+     * Get the flow that issued the token by its tenant and its {@code tfp} claim, or its {@code acr} claim.
+     * The tenant is the {@code tid} claim, or the tenant id in the {@code iss} claim.
+     * The claims are not verified yet, so the flow is only the candidate whose keys and issuer verify the token.
+     *
+     * @param jwt The decoded token
+     * @return The flow, or null if the flow is unknown
+     */
+    public FlowContext forToken(DecodedJWT jwt) {
+        var userFlow = jwt.getClaim("tfp").asString();
+        if (userFlow == null) {
+            userFlow = jwt.getClaim("acr").asString();
+        }
+        if (userFlow == null) {
+            // A token without the claims is accepted only when there is one flow
+            return _flows.size() == 1 ? _defaultFlow : null;
+        }
+        var tenantId = _tenantIdOf(jwt);
+        return tenantId != null ? _byUserFlow.get(FlowKey.of(tenantId, userFlow)) : null;
+    }
+
+    /**
+     * Get all the flows
+     *
+     * @return The flows in the order of the configuration
+     */
+    public Collection<FlowContext> getAll() {
+        return _flows;
+    }
+
+    /**
+     * Stop the background refresh of the signing keys of all the user flows
+     */
+    @PreDestroy
+    public void stop() {
+        for (var context : _flows) {
+            context.keyStore().stop();
+        }
+    }
+
+    /**
+     * Refresh the discovery documents of all the user flows in the background
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "#{@webAppConfig.discoveryRefreshInterval.toMillis()}")
+    public void refreshDiscovery() {
+        for (var context : _flows) {
+            try {
+                if (context.discovery().refresh()) {
+                    var endpoints = context.endpoints();
+                    context.keyStore().setKeysUrl(endpoints.getJwksUri());
+                    context.verifierCache().setIssuer(endpoints.getIssuer());
+                }
+            } catch (RestClientException | B2cUnavailableException e) {
+                _logger.warn("Failed to fetch the discovery document of {}: {}", context.flow().getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Poll the keys of all the user flows in the background
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "#{@webAppConfig.jwksPollInterval.toMillis()}")
+    public void poll() {
+        for (var context : _flows) {
+            try {
+                context.keyStore().refresh();
+            } catch (JwkException e) {
+                _logger.warn("Failed to poll the signing keys of {}: {}", context.flow().getName(), e.getMessage());
+            }
+        }
+    }
+
+    private static FlowContext _createContext(B2cFlow flow, WebAppConfig webAppConfig, RestTemplate restTemplate,
+                                              B2cCallGuard guard, ObjectMapper objectMapper,
+                                              MeterRegistry meterRegistry) {
+        var discovery = new OpenIdDiscovery(flow, webAppConfig.getRedirectBaseUrl(), restTemplate, guard);
+        var keyStore = new JwksKeyStore(flow, webAppConfig, restTemplate, guard, objectMapper, meterRegistry);
+        return new FlowContext(flow, discovery, keyStore,
+                new JwtVerifierCache(flow, webAppConfig, keyStore, meterRegistry));
+    }
+
+    private static String _orDefault(String value, String defaultValue) {
+        return value != null && !value.isBlank() ? value : defaultValue;
+    }
+
+    /**
+     * Get the tenant id of the token from its {@code tid} claim, or from its issuer
+     * {@code https://{host}/{tenant id}/v2.0/}
+     *
+     * @param jwt The decoded token
+     * @return The tenant id, or null if the token has neither
+     */
+    private static String _tenantIdOf(DecodedJWT jwt) {
+        var tenantId = jwt.getClaim("tid").asString();
+        if (tenantId != null) {
+            return tenantId;
+        }
+        var issuer = jwt.getIssuer();
+        var end = issuer != null ? issuer.lastIndexOf("/v2.0") : -1;
+        var start = end > 0 ? issuer.lastIndexOf('/', end - 1) : -1;
+        return start >= 0 ? issuer.substring(start + 1, end) : null;
+    }
+
+    /**
+     * The key of a user flow in a tenant, in lower case
+     *
+     * @param tenantId The tenant id
+     * @param userFlow The user flow name
+     */
+    private record FlowKey(String tenantId, String userFlow) {
+
+        static FlowKey of(String tenantId, String userFlow) {
+            return new FlowKey(tenantId.toLowerCase(Locale.ROOT), userFlow.toLowerCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jp.co.dsas.azureadb2c.sample.Exception.B2cUnavailableException;
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.controller.UserInfo;
+import jp.co.dsas.azureadb2c.sample.guard.B2cCallGuard;
+import jp.co.dsas.azureadb2c.sample.jfr.TokenExchangeEvent;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The client class for the token endpoints of the user flows
+ */
+@Component
+public class B2cTokenClient {
+
+    /**
+     * The query of the token endpoint for the authorization code
+     */
+    private static final String REDEEM_QUERY =
+            "grant_type={grant_type}&client_id={client_id}&scope={scope}&code={code}&redirect_uri={redirect_uri}&client_secret={client_secret}";
+
+    /**
+     * The query of the token endpoint for the refresh token
+     */
+    private static final String REFRESH_QUERY =
+            "grant_type={grant_type}&client_id={client_id}&scope={scope}&refresh_token={refresh_token}&redirect_uri={redirect_uri}&client_secret={client_secret}";
+
+    private final RestTemplate _restTemplate;
+
+    /**
+     * The bulkhead around the calls to Azure AD B2C
+     */
+    private final B2cCallGuard _guard;
+
+    /**
+     * The shared reader for the token response
+     */
+    private final ObjectReader _tokenReader;
+
+    /**
+     * The shared reader for the decoded profile_info
+     */
+    private final ObjectReader _userInfoReader;
+
+    /**
+     * Constructor
+     *
+     * @param restTemplate The shared REST client
+     * @param guard        The bulkhead around the calls to Azure AD B2C
+     * @param objectMapper The JSON mapper
+     */
+    public B2cTokenClient(RestTemplate restTemplate, B2cCallGuard guard, ObjectMapper objectMapper) {
+        this._restTemplate = restTemplate;
+        this._guard = guard;
+        this._tokenReader = objectMapper.readerFor(TokenInfo.class);
+        this._userInfoReader = objectMapper.readerFor(UserInfo.class);
+    }
+
+    /**
+     * Redeem the authorization code for the tokens
+     *
+     * @param context The user flow that issued the code
+     * @param code    The authorization code
+     * @return The tokens
+     * @throws B2cUnavailableException The exception class when Azure AD B2C is slow or failing
+     */
+    public TokenInfo redeem(FlowContext context, String code) throws B2cUnavailableException {
+        var flow = context.flow();
+        Map<String, String> params = new HashMap<>();
+        params.put("grant_type", "authorization_code");
+        params.put("client_id", flow.getClientId());
+        String scope = flow.getClientId() + " offline_access";
+        params.put("scope", scope);
+        params.put("code", code);
+        params.put("redirect_uri", "urn:ietf:wg:oauth:2.0:oob");
+        params.put("client_secret", flow.getSecret());
+
+        // The request is never hedged or retried, because the code can be redeemed only once.
+        return _post(context, REDEEM_QUERY, params);
+    }
+
+    /**
+     * Redeem the refresh token for new tokens
+     *
+     * @param context      The user flow that issued the refresh token
+     * @param refreshToken The refresh token
+     * @return The tokens
+     * @throws B2cUnavailableException The exception class when Azure AD B2C is slow or failing
+     */
+    public TokenInfo refresh(FlowContext context, String refreshToken) throws B2cUnavailableException {
+        var flow = context.flow();
+        Map<String, String> params = new HashMap<>();
+        params.put("grant_type", "refresh_token");
+        params.put("client_id", flow.getClientId());
+        String scope = flow.getClientId() + " offline_access";
+        params.put("scope", scope);
+        params.put("refresh_token", refreshToken);
+        params.put("redirect_uri", "urn:ietf:wg:oauth:2.0:oob");
+        params.put("client_secret", flow.getSecret());
+
+        return _post(context, REFRESH_QUERY, params);
+    }
+
+    /**
+     * Post the request to the token endpoint and read the tokens straight from the response stream
+     *
+     * @param context The user flow
+     * @param query   The query of the token endpoint
+     * @param params  The parameters of the query
+     * @return The tokens
+     * @throws B2cUnavailableException The exception class when Azure AD B2C is slow or failing
+     */
+    private TokenInfo _post(FlowContext context, String query, Map<String, String> params)
+            throws B2cUnavailableException {
+        var event = new TokenExchangeEvent();
+        event.begin();
+        try {
+            TokenInfo token = _guard.execute(() -> _restTemplate.execute(context.endpoints().getTokenUrlPrefix() + query,
+                    HttpMethod.POST, null, response -> _tokenReader.readValue(response.getBody()), params));
+            event.outcome = "success";
+            return token;
+        } catch (B2cUnavailableException | RuntimeException e) {
+            event.outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.flow = context.flow().getName();
+                event.grantType = params.get("grant_type");
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Read the user's information from the profile_info encoded by BASE64
+     *
+     * @param token The tokens
+     * @return The user's information
+     * @throws IOException The exception class for the invalid JSON
+     */
+    public UserInfo readProfile(TokenInfo token) throws IOException {
+        var json = Base64.getDecoder().decode(token.getProfileInfoEncoded());
+        return _userInfoReader.readValue(json);
+    }
+}
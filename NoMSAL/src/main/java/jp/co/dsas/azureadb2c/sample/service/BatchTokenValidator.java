@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import jakarta.annotation.PreDestroy;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.controller.TokenValidation;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The validator of many tokens at once.
+ * <p>
+ * The tokens are grouped by the user flow and the key id, so the verifier of each key is looked up once per batch
+ * on the calling thread. Only the first unknown key id of a user flow may fetch the keys; the
+ * other unknown key ids of the flow are rejected without a fetch, because the fetch has already
+ * brought every key the flow publishes. The signatures are then verified in chunks on a pool
+ * sized to the processors, because the verification only uses the CPU.
+ */
+@Component
+public class BatchTokenValidator {
+
+    private final WebAppConfig _webAppConfig;
+
+    private final B2cFlowRegistry _flowRegistry;
+
+    private final ExecutorService _verifyExecutor;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     * @param flowRegistry The registry of the user flows
+     */
+    public BatchTokenValidator(WebAppConfig webAppConfig, B2cFlowRegistry flowRegistry) {
+        this._webAppConfig = webAppConfig;
+        this._flowRegistry = flowRegistry;
+        var parallelism = webAppConfig.getBatchParallelism() > 0
+                ? webAppConfig.getBatchParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this._verifyExecutor = Executors.newFixedThreadPool(parallelism,
+                Thread.ofPlatform().name("token-verify-", 0).daemon().factory());
+    }
+
+    /**
+     * Stop the verifying threads
+     */
+    @PreDestroy
+    public void stop() {
+        _verifyExecutor.shutdownNow();
+    }
+
+    /**
+     * Validate the tokens
+     *
+     * @param tokens The tokens
+     * @return The results in the order of the tokens
+     */
+    public List<TokenValidation> validate(List<String> tokens) {
+        var results = new TokenValidation[tokens.size()];
+        var decoded = new DecodedJWT[tokens.size()];
+
+        // Group the indexes of the tokens by the user flow and the key id
+        var groups = new HashMap<KeyGroup, List<Integer>>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i) == null) {
+                results[i] = _invalid("The token is null.");
+                continue;
+            }
+            try {
+                decoded[i] = JWT.decode(tokens.get(i));
+                // A token without a kid matches no key, so it fails alone instead of the whole group
+                if (decoded[i].getKeyId() == null) {
+                    results[i] = _invalid("The token has no kid.");
+                    continue;
+                }
+                var flow = _flowRegistry.forToken(decoded[i]);
+                if (flow == null) {
+                    results[i] = _invalid("The user flow of the token is unknown.");
+                    continue;
+                }
+                groups.computeIfAbsent(new KeyGroup(flow, decoded[i].getKeyId()), key -> new ArrayList<>()).add(i);
+            } catch (JWTDecodeException e) {
+                results[i] = _invalid("The token is malformed.");
+            }
+        }
+
+        var chunkSize = Math.max(1, _webAppConfig.getBatchChunkSize());
+        var tasks = new ArrayList<CompletableFuture<Void>>();
+        // The user flows whose keys were fetched for an unknown key id in this batch
+        var fetchedFlows = new HashSet<FlowContext>();
+        for (var group : groups.entrySet()) {
+            var flow = group.getKey().flow();
+            var kid = group.getKey().kid();
+            JWTVerifier verifier;
+            try {
+                if (!flow.keyStore().hasKey(kid) && !fetchedFlows.add(flow)) {
+                    throw new SigningKeyNotFoundException("No key found for kid " + kid, null);
+                }
+                verifier = flow.verifierCache().getVerifier(kid);
+            } catch (JwkException e) {
+                for (int i : group.getValue()) {
+                    results[i] = _invalid(e.getMessage());
+                }
+                continue;
+            }
+            var indexes = group.getValue();
+            for (int from = 0; from < indexes.size(); from += chunkSize) {
+                var chunk = indexes.subList(from, Math.min(from + chunkSize, indexes.size()));
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    for (int i : chunk) {
+                        results[i] = _verify(verifier, decoded[i]);
+                    }
+                }, _verifyExecutor));
+            }
+        }
+        // The chunks write to their own indexes, and join makes the writes visible here
+        CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Verify one token
+     *
+     * @param verifier   The verifier for the key of the token
+     * @param decodedJwt The decoded token
+     * @return The result
+     */
+    private static TokenValidation _verify(JWTVerifier verifier, DecodedJWT decodedJwt) {
+        try {
+            var verifiedJwt = verifier.verify(decodedJwt);
+            var claims = new LinkedHashMap<String, Object>();
+            verifiedJwt.getClaims().forEach((name, claim) -> claims.put(name, claim.as(Object.class)));
+            var result = new TokenValidation();
+            result.setValid(true);
+            result.setClaims(claims);
+            return result;
+        } catch (JWTVerificationException e) {
+            return _invalid(e.getMessage());
+        }
+    }
+
+    private static TokenValidation _invalid(String error) {
+        var result = new TokenValidation();
+        result.setError(error);
+        return result;
+    }
+
+    /**
+     * The tokens signed by the same key of the same user flow
+     *
+     * @param flow The user flow
+     * @param kid  The key id
+     */
+    private record KeyGroup(FlowContext flow, String kid) {
+    }
+}
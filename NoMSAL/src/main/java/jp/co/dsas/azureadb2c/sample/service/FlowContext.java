@@ -0,0 +1,47 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import jp.co.dsas.azureadb2c.sample.config.B2cFlow;
+
+/**
+ * A user flow together with its own endpoints, signing keys and verifiers
+ *
+ * @param flow          The user flow
+ * @param discovery     The discovery document of the flow
+ * @param keyStore      The signing keys of the flow
+ * @param verifierCache The verifiers of the flow
+ */
+public record FlowContext(B2cFlow flow, OpenIdDiscovery discovery, JwksKeyStore keyStore,
+                          JwtVerifierCache verifierCache) {
+
+    /**
+     * Get the current endpoints of the flow
+     *
+     * @return The endpoints
+     */
+    public FlowEndpoints endpoints() {
+        return discovery.getEndpoints();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import jp.co.dsas.azureadb2c.sample.config.B2cFlow;
+import jp.co.dsas.azureadb2c.sample.controller.OpenIdConfiguration;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The endpoints of a user flow and the prebuilt prefixes of the redirects to them.
+ * A request only appends its state and nonce to the prefix.
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public final class FlowEndpoints {
+
+    private final String issuer;
+
+    private final String authorizationEndpoint;
+
+    private final String tokenEndpoint;
+
+    private final String endSessionEndpoint;
+
+    private final String jwksUri;
+
+    /**
+     * The URL of the sign-in page up to the value of the state
+     */
+    private final String signInUrlPrefix;
+
+    /**
+     * The URL of the sign-out page up to the value of the state
+     */
+    private final String signOutUrlPrefix;
+
+    /**
+     * The URL of the token endpoint followed by the separator of the query
+     */
+    private final String tokenUrlPrefix;
+
+    /**
+     * Constructor
+     *
+     * @param flow            The user flow
+     * @param discovery       The discovery document, or null to use the endpoints computed from the flow
+     * @param redirectBaseUrl The base URL of this application
+     */
+    public FlowEndpoints(B2cFlow flow, OpenIdConfiguration discovery, String redirectBaseUrl) {
+        this.issuer = _orDefault(discovery != null ? discovery.getIssuer() : null, flow.getIssuer());
+        this.authorizationEndpoint = _orDefault(discovery != null ? discovery.getAuthorizationEndpoint() : null,
+                flow.getAuthorizeEndpoint());
+        this.tokenEndpoint = _orDefault(discovery != null ? discovery.getTokenEndpoint() : null, flow.getTokenEndpoint());
+        this.endSessionEndpoint = _orDefault(discovery != null ? discovery.getEndSessionEndpoint() : null,
+                flow.getLogoutEndpoint());
+        this.jwksUri = _orDefault(discovery != null ? discovery.getJwksUri() : null, flow.getKeysEndpoint());
+
+        var scope = URLEncoder.encode(flow.getScope(), StandardCharsets.UTF_8).replace("+", "%20");
+        this.signInUrlPrefix = authorizationEndpoint + _separator(authorizationEndpoint) +
+                "client_id=" + flow.getClientId() +
+                "&response_type=code+id_token" +
+                "&redirect_uri=" + URLEncoder.encode(redirectBaseUrl + "/success", StandardCharsets.UTF_8) +
+                "&response_mode=query" +
+                "&scope=" + scope +
+                "&state=";
+        this.signOutUrlPrefix = endSessionEndpoint + _separator(endSessionEndpoint) +
+                "redirect_uri=" + URLEncoder.encode(redirectBaseUrl + "/sign_out", StandardCharsets.UTF_8) +
+                "&state=";
+        this.tokenUrlPrefix = tokenEndpoint + _separator(tokenEndpoint);
+    }
+
+    private static String _separator(String url) {
+        return url.indexOf('?') < 0 ? "?" : "&";
+    }
+
+    private static String _orDefault(String value, String defaultValue) {
+        return value != null && !value.isBlank() ? value : defaultValue;
+    }
+}
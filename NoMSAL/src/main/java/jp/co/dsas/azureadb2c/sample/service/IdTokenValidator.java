@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.NetworkException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import jp.co.dsas.azureadb2c.sample.Exception.B2cUnavailableException;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.jfr.IdTokenVerificationEvent;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInMetrics;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInMetrics.Stage;
+import org.springframework.stereotype.Component;
+
+/**
+ * The validator of the id token returned to the sign-in callback.
+ * <p>
+ * The user flow is found by the claims of the token, then the signature, the issuer and the
+ * audience are verified by the cached verifier for the key id, and the nonce is compared with
+ * the one saved at the sign-in.
+ */
+@Component
+public class IdTokenValidator {
+
+    /**
+     * The registry of the user flows
+     */
+    private final B2cFlowRegistry _flowRegistry;
+
+    /**
+     * The metrics of the sign-in
+     */
+    private final SignInMetrics _metrics;
+
+    /**
+     * Constructor
+     *
+     * @param flowRegistry The registry of the user flows
+     * @param metrics      The metrics of the sign-in
+     */
+    public IdTokenValidator(B2cFlowRegistry flowRegistry, SignInMetrics metrics) {
+        this._flowRegistry = flowRegistry;
+        this._metrics = metrics;
+    }
+
+    /**
+     * validate the id token
+     *
+     * @param idToken The id token
+     * @param nonce   The value that application generated randomly
+     * @return The user flow that issued the id token
+     * @throws SampleException The exception class for the invalid id token
+     */
+    public FlowContext validate(String idToken, Integer nonce) throws SampleException {
+        try {
+            // Decode the id token
+            var decodedJwt = JWT.decode(idToken);
+
+            // Find the user flow by the tfp or acr claim
+            var stageStart = System.nanoTime();
+            var context = _flowRegistry.forToken(decodedJwt);
+            if (context == null) {
+                throw new SampleException(SampleException.Reason.UNKNOWN_FLOW, "The user flow of the id token is unknown.");
+            }
+
+            // verify the signature, the issuer and the audience by the cached verifier for the key id
+            var verifier = context.verifierCache().getVerifier(decodedJwt.getKeyId());
+            _metrics.record(Stage.KEY_LOOKUP, stageStart);
+            stageStart = System.nanoTime();
+            var verification = new IdTokenVerificationEvent();
+            verification.begin();
+            verification.outcome = "verification_failed";
+            try {
+                var verifiedJwt = verifier.verify(decodedJwt);
+                _metrics.record(Stage.VERIFY, stageStart);
+
+                // nonce is String in the id token
+                if (!String.valueOf(nonce).equals(verifiedJwt.getClaim("nonce").asString())) {
+                    throw new SampleException(SampleException.Reason.VERIFICATION_FAILED, "The nonce is invalid.");
+                }
+                verification.outcome = "success";
+            } finally {
+                verification.end();
+                if (verification.shouldCommit()) {
+                    verification.flow = context.flow().getName();
+                    verification.commit();
+                }
+            }
+            // If the id token valid, return the user flow
+            return context;
+        } catch (JWTVerificationException e) {
+            // If the id token invalid, throw an exception
+            throw new SampleException(SampleException.Reason.VERIFICATION_FAILED, e.getMessage());
+        } catch (NetworkException e) {
+            // The signing keys cannot be fetched, so the id token cannot be verified now
+            throw new B2cUnavailableException(e.getMessage());
+        } catch (JwkException e) {
+            // No key of the user flow matches the kid, so the id token is not signed by the user flow
+            throw new SampleException(SampleException.Reason.VERIFICATION_FAILED, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,706 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.auth0.jwk.InvalidPublicKeyException;
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.NetworkException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jp.co.dsas.azureadb2c.sample.Exception.B2cUnavailableException;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlow;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.controller.JwkObject;
+import jp.co.dsas.azureadb2c.sample.controller.JwkSet;
+import jp.co.dsas.azureadb2c.sample.guard.B2cCallGuard;
+import jp.co.dsas.azureadb2c.sample.jfr.KeyLookupEvent;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide cache of the signing keys published by the Azure AD B2C user flow.
+ * <p>
+ * The keys are parsed once into {@link RSAPublicKey} instances and shared by every request,
+ * so the signature of an id token is verified in memory.
+ * Expired keys are still served for a while and refreshed in the background.
+ * Concurrent fetches share one request, unknown key ids cause at most one fetch per
+ * min_refresh_interval, and key ids that are still missing after a fetch are rejected for
+ * a while without fetching again.
+ * The keys are also polled in the background with a conditional GET, so a key rollover is
+ * normally picked up before the first token signed by the new key arrives.
+ * When the snapshot is enabled, the last good keys are saved to a local file and loaded at startup.
+ * They are used only while no fetch has succeeded yet and the user flow endpoint is unreachable,
+ * and only from a directory and a file that no other user can write.
+ */
+public class JwksKeyStore {
+
+    private static final Logger _logger = LoggerFactory.getLogger(JwksKeyStore.class);
+
+    /**
+     * The maximum number of the missing key ids that are remembered.
+     * When it is reached, the oldest entry is forgotten.
+     */
+    private static final int MAX_MISSING_KIDS = 1024;
+
+    private final WebAppConfig _webAppConfig;
+
+    /**
+     * The name of the user flow, for the events
+     */
+    private final String _flowName;
+
+    /**
+     * The jwks_uri of the user flow
+     */
+    private volatile String _keysUrl;
+
+    private final RestTemplate _restTemplate;
+
+    /**
+     * The bulkhead around the calls to Azure AD B2C
+     */
+    private final B2cCallGuard _guard;
+
+    private final ObjectMapper _objectMapper;
+
+    /**
+     * The file where the last good keys are saved, or null if the snapshot is disabled
+     */
+    private final Path _snapshotFile;
+
+    /**
+     * The thread for the background refresh of the expired keys
+     */
+    private final ExecutorService _refreshExecutor;
+
+    private final AtomicBoolean _refreshing = new AtomicBoolean();
+
+    /**
+     * The lookups served by a fresh key, by an expired key, and by a fetch
+     */
+    private final Counter _hits;
+
+    private final Counter _staleHits;
+
+    private final Counter _misses;
+
+    /**
+     * The current keys, replaced as a whole on every refresh
+     */
+    private volatile KeySet _keySet = new KeySet(Map.of(), 0L, null, -1L);
+
+    /**
+     * The keys loaded from the snapshot, used until the first fetch succeeds, or null
+     */
+    private volatile Map<String, RSAPublicKey> _snapshotKeys;
+
+    /**
+     * The outstanding fetch of the keys, shared by all the callers of {@link #refresh()}, or null
+     */
+    private final AtomicReference<CompletableFuture<KeySet>> _inFlightRefresh = new AtomicReference<>();
+
+    /**
+     * The epoch milliseconds when the last fetch of the keys started
+     */
+    private volatile long _lastRefreshAt;
+
+    /**
+     * The epoch milliseconds until which the key id is treated as missing, in the order of insertion
+     */
+    private final Map<String, Long> _missingKids = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_MISSING_KIDS;
+        }
+    });
+
+    /**
+     * Constructor
+     *
+     * @param flow          The user flow
+     * @param webAppConfig  The web app configuration
+     * @param restTemplate  The shared REST client
+     * @param guard         The bulkhead around the calls to Azure AD B2C
+     * @param objectMapper  The JSON mapper for the snapshot file
+     * @param meterRegistry The registry of the metrics
+     */
+    public JwksKeyStore(B2cFlow flow, WebAppConfig webAppConfig, RestTemplate restTemplate, B2cCallGuard guard,
+                        ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this._webAppConfig = webAppConfig;
+        this._restTemplate = restTemplate;
+        this._guard = guard;
+        this._refreshExecutor = Executors.newSingleThreadExecutor(webAppConfig.isVirtualThreads()
+                ? Thread.ofVirtual().name("jwks-refresh").factory()
+                : Thread.ofPlatform().name("jwks-refresh").daemon().factory());
+        this._objectMapper = objectMapper;
+        this._keysUrl = flow.getKeysEndpoint();
+        this._flowName = flow.getName();
+        this._hits = _cacheCounter(meterRegistry, flow, "hit");
+        this._staleHits = _cacheCounter(meterRegistry, flow, "stale");
+        this._misses = _cacheCounter(meterRegistry, flow, "miss");
+        var snapshotDir = webAppConfig.getJwksSnapshotDir();
+        this._snapshotFile = snapshotDir == null || snapshotDir.isBlank()
+                ? null
+                : Path.of(snapshotDir, flow.getTenant() + "-" + flow.getUserFlow() + ".json");
+
+        // Load the last good keys before the first request arrives
+        _loadSnapshot();
+    }
+
+    /**
+     * Get the public key for the key id
+     *
+     * @param kid The key id in the header of the token
+     * @return The public key
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    public RSAPublicKey getKey(String kid) throws JwkException {
+        if (kid == null) {
+            // The keys are held in maps that reject a null key, and no key of the user flow matches a token without a kid
+            throw new SigningKeyNotFoundException("The token has no kid", null);
+        }
+        var event = new KeyLookupEvent();
+        event.begin();
+        try {
+            var key = _lookup(kid, event);
+            event.outcome = "success";
+            return key;
+        } catch (JwkException | RuntimeException e) {
+            event.outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.flow = _flowName;
+                event.kid = kid;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Check whether the key id is in the current keys, without fetching them
+     *
+     * @param kid The key id
+     * @return True if the key id is known, even if its key is expired, and false for a null key id
+     */
+    public boolean hasKey(String kid) {
+        return kid != null && _keySet.keys().containsKey(kid);
+    }
+
+    /**
+     * Get the public key from the cache, or fetch the keys
+     *
+     * @param kid   The key id in the header of the token
+     * @param event The event recording whether the key was cached
+     * @return The public key
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    private RSAPublicKey _lookup(String kid, KeyLookupEvent event) throws JwkException {
+        var keySet = _keySet;
+        var key = keySet.keys().get(kid);
+        if (key != null) {
+            long age = System.currentTimeMillis() - keySet.fetchedAt();
+            if (age <= _webAppConfig.getJwksTtl().toMillis()) {
+                _hits.increment();
+                event.cache = "hit";
+                return key;
+            }
+            if (age <= _webAppConfig.getJwksTtl().plus(_webAppConfig.getJwksStaleWhileRevalidate()).toMillis()) {
+                // Serve the stale key and revalidate it in the background
+                _refreshAsync();
+                _staleHits.increment();
+                event.cache = "stale";
+                return key;
+            }
+        }
+
+        // The key is unknown or too old, so fetch the keys before verifying
+        _misses.increment();
+        event.cache = "miss";
+        try {
+            return _fetchKey(kid);
+        } catch (NetworkException e) {
+            if (key == null) {
+                key = _snapshotKey(kid);
+            }
+            if (key == null) {
+                throw e;
+            }
+            // The user flow endpoint is unreachable, so keep using the old key
+            _logger.warn("Using the cached key for kid {} because the keys cannot be fetched: {}", kid, e.getMessage());
+            return key;
+        }
+    }
+
+    /**
+     * Register the counter of the lookups by the result
+     *
+     * @param meterRegistry The registry of the metrics
+     * @param flow          The user flow
+     * @param result        The result of the lookup
+     * @return The counter
+     */
+    private static Counter _cacheCounter(MeterRegistry meterRegistry, B2cFlow flow, String result) {
+        return Counter.builder("b2c.cache.requests")
+                .description("The lookups of the cache by the result")
+                .tag("cache", "jwks")
+                .tag("flow", flow.getName())
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Stop the background refresh, after the snapshot being saved is written
+     */
+    public void stop() {
+        _refreshExecutor.shutdown();
+    }
+
+    /**
+     * Change the jwks_uri, when it is found in the discovery document
+     *
+     * @param keysUrl The jwks_uri
+     */
+    public void setKeysUrl(String keysUrl) {
+        this._keysUrl = keysUrl;
+    }
+
+    /**
+     * Fetch the keys from the user flow with a conditional GET and replace the cached keys.
+     * The parsed keys are swapped in only when the content has changed. A call made while
+     * another fetch is outstanding waits for that fetch instead of sending its own.
+     *
+     * @return The current keys
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    public KeySet refresh() throws JwkException {
+        var future = new CompletableFuture<KeySet>();
+        var inFlight = _inFlightRefresh.compareAndExchange(null, future);
+        if (inFlight != null) {
+            return _await(inFlight);
+        }
+        try {
+            _lastRefreshAt = System.currentTimeMillis();
+            future.complete(_fetch());
+        } catch (JwkException | RuntimeException e) {
+            future.completeExceptionally(e);
+        } finally {
+            _inFlightRefresh.set(null);
+        }
+        return _await(future);
+    }
+
+    /**
+     * Send the conditional GET and swap in the keys
+     *
+     * @return The current keys
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    private KeySet _fetch() throws JwkException {
+        var current = _keySet;
+        var headers = new HttpHeaders();
+        if (current.etag() != null) {
+            headers.setIfNoneMatch(current.etag());
+        }
+        if (current.lastModified() >= 0) {
+            headers.setIfModifiedSince(current.lastModified());
+        }
+
+        var now = System.currentTimeMillis();
+        var response = _exchange(headers);
+        var keys = current.keys();
+        if (response.getStatusCode() != HttpStatus.NOT_MODIFIED) {
+            var fetchedKeys = _parseKeys(response.getBody());
+            if (fetchedKeys.isEmpty()) {
+                // A broken response must not replace the good keys, so it is handled like an unreachable endpoint
+                _logger.warn("The response from {} has no usable signing keys, the cached keys are kept.", _keysUrl);
+                throw new NetworkException("No usable signing keys in the response from " + _keysUrl, null);
+            }
+            // Keep the same map when the keys have not changed
+            if (!fetchedKeys.equals(keys)) {
+                keys = fetchedKeys;
+                _logger.info("The signing keys have changed: {}", keys.keySet());
+            }
+        }
+        var etag = response.getHeaders().getETag();
+        var lastModified = response.getHeaders().getLastModified();
+        var keySet = new KeySet(keys, now,
+                etag != null ? etag : current.etag(),
+                lastModified >= 0 ? lastModified : current.lastModified());
+        _keySet = keySet;
+        _snapshotKeys = null;
+        try {
+            _refreshExecutor.execute(() -> _saveSnapshot(keySet));
+        } catch (RejectedExecutionException e) {
+            // The store is stopped, so only the snapshot is skipped and the fetched keys are still used
+            _logger.debug("The snapshot of the signing keys is not saved after the store was stopped.");
+        }
+        return keySet;
+    }
+
+    /**
+     * Send the GET request to the jwks_uri
+     *
+     * @param headers The conditional request headers
+     * @return The response
+     * @throws NetworkException The exception class for the failure or the rejection of the request
+     */
+    private ResponseEntity<JwkSet> _exchange(HttpHeaders headers) throws NetworkException {
+        var keysUrl = _keysUrl;
+        try {
+            return _guard.executeIdempotent(() -> _restTemplate.exchange(keysUrl, HttpMethod.GET, new HttpEntity<>(headers), JwkSet.class));
+        } catch (RestClientException e) {
+            throw new NetworkException("Failed to fetch the signing keys from " + keysUrl, e);
+        } catch (B2cUnavailableException e) {
+            // Rejected by the bulkhead, so the cached keys are used if there are any
+            throw new NetworkException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Convert the JSON Web Key Set to the public keys indexed by the key id
+     *
+     * @param jwkSet The JSON Web Key Set
+     * @return The public keys, without the keys that are not RSA or cannot be parsed
+     */
+    private Map<String, RSAPublicKey> _parseKeys(JwkSet jwkSet) {
+        List<JwkObject> jwks = jwkSet != null && jwkSet.getKeys() != null ? jwkSet.getKeys() : List.of();
+        var keys = new HashMap<String, RSAPublicKey>();
+        for (JwkObject jwk : jwks) {
+            if (keys.size() >= _webAppConfig.getJwksMaxSize()) {
+                _logger.warn("The key set has more than {} keys, the rest are ignored.", _webAppConfig.getJwksMaxSize());
+                break;
+            }
+            if ("RSA".equals(jwk.getKty()) && jwk.getKid() != null) {
+                try {
+                    keys.put(jwk.getKid(), _toPublicKey(jwk));
+                } catch (InvalidPublicKeyException e) {
+                    _logger.warn("The signing key {} is ignored: {}", jwk.getKid(), e.getMessage());
+                }
+            }
+        }
+        return Map.copyOf(keys);
+    }
+
+    /**
+     * Convert the modulus and the exponent of the JSON Web Key to the public key
+     *
+     * @param jwk The JSON Web Key
+     * @return The public key
+     * @throws InvalidPublicKeyException The exception class for the invalid key
+     */
+    private static RSAPublicKey _toPublicKey(JwkObject jwk) throws InvalidPublicKeyException {
+        try {
+            var decoder = Base64.getUrlDecoder();
+            var modulus = new BigInteger(1, decoder.decode(jwk.getN()));
+            var exponent = new BigInteger(1, decoder.decode(jwk.getE()));
+            return (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+        } catch (GeneralSecurityException | IllegalArgumentException | NullPointerException e) {
+            throw new InvalidPublicKeyException("Invalid key for kid " + jwk.getKid(), e);
+        }
+    }
+
+    /**
+     * Fetch the keys for the unknown key id, unless the key id is known to be missing or the keys
+     * were fetched too recently
+     *
+     * @param kid The key id
+     * @return The public key
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    private RSAPublicKey _fetchKey(String kid) throws JwkException {
+        long now = System.currentTimeMillis();
+        Long missingUntil = _missingKids.get(kid);
+        if (missingUntil != null) {
+            if (now < missingUntil) {
+                throw new SigningKeyNotFoundException("No key found for kid " + kid, null);
+            }
+            _missingKids.remove(kid, missingUntil);
+        }
+
+        // A fetch is outstanding or ran a moment ago, so its keys are as new as another fetch would bring.
+        // The key id is not remembered as missing, so it is looked up again after the interval.
+        var inFlight = _inFlightRefresh.get();
+        if (inFlight == null && now - _lastRefreshAt < _webAppConfig.getJwksMinRefreshInterval().toMillis()) {
+            var key = _keySet.keys().get(kid);
+            if (key == null) {
+                // The last fetch failed if the snapshot is still held, so the endpoint is treated as unreachable
+                key = _snapshotKey(kid);
+            }
+            if (key == null) {
+                throw new SigningKeyNotFoundException("No key found for kid " + kid, null);
+            }
+            return key;
+        }
+
+        var key = (inFlight != null ? _await(inFlight) : refresh()).keys().get(kid);
+        if (key == null) {
+            // The oldest entry is dropped when the map is full, so a flood of forged key ids cannot lock out a new key
+            _missingKids.remove(kid);
+            _missingKids.put(kid, System.currentTimeMillis() + _webAppConfig.getJwksNegativeTtl().toMillis());
+            throw new SigningKeyNotFoundException("No key found for kid " + kid, null);
+        }
+        return key;
+    }
+
+    /**
+     * Wait for the fetch of the keys
+     *
+     * @param future The outstanding fetch
+     * @param <T>    The type of the result
+     * @return The result of the fetch
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    private static <T> T _await(CompletableFuture<T> future) throws JwkException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetworkException("Interrupted while fetching the signing keys", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JwkException jwkException) {
+                throw jwkException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new JwkException("Failed to fetch the signing keys", e.getCause());
+        }
+    }
+
+    /**
+     * Get the key from the snapshot, while no fetch has succeeded yet
+     *
+     * @param kid The key id
+     * @return The public key, or null
+     */
+    private RSAPublicKey _snapshotKey(String kid) {
+        var snapshotKeys = _snapshotKeys;
+        return snapshotKeys != null ? snapshotKeys.get(kid) : null;
+    }
+
+    /**
+     * Load the keys saved by the previous process unless they are too old or may have been written by another user
+     */
+    private void _loadSnapshot() {
+        if (_snapshotFile == null || !Files.isRegularFile(_snapshotFile, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        var start = System.nanoTime();
+        try {
+            if (!_isPrivate(_snapshotFile.getParent()) || !_isPrivate(_snapshotFile)) {
+                _logger.warn("The saved signing keys in {} are not loaded, because the file or its directory is not owned by this user or is writable by others.",
+                        _snapshotFile);
+                return;
+            }
+            var snapshot = _objectMapper.readValue(_snapshotFile.toFile(), Snapshot.class);
+            var age = System.currentTimeMillis() - snapshot.getFetchedAt();
+            if (age < 0 || age > _webAppConfig.getJwksSnapshotMaxAge().toMillis()) {
+                _logger.info("The saved signing keys in {} are too old and are not loaded.", _snapshotFile);
+                return;
+            }
+            var jwkSet = new JwkSet();
+            jwkSet.setKeys(snapshot.getKeys());
+            _snapshotKeys = _parseKeys(jwkSet);
+            _logger.info("Loaded {} signing keys from {} in {} us.",
+                    _snapshotKeys.size(), _snapshotFile, (System.nanoTime() - start) / 1000);
+        } catch (IOException e) {
+            _logger.warn("Failed to load the saved signing keys from {}: {}", _snapshotFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Save the keys to the snapshot file, replacing the previous file atomically
+     *
+     * @param keySet The keys to save
+     */
+    private void _saveSnapshot(KeySet keySet) {
+        if (_snapshotFile == null) {
+            return;
+        }
+        var snapshot = new Snapshot();
+        snapshot.setFetchedAt(keySet.fetchedAt());
+        snapshot.setEtag(keySet.etag());
+        snapshot.setLastModified(keySet.lastModified());
+        var jwks = new ArrayList<JwkObject>();
+        keySet.keys().forEach((kid, key) -> jwks.add(_toJwk(kid, key)));
+        snapshot.setKeys(jwks);
+        try {
+            var dir = _snapshotFile.getParent();
+            if (Files.notExists(dir) && dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(dir);
+            }
+            if (!_isPrivate(dir)) {
+                _logger.warn("The signing keys are not saved, because {} is not owned by this user or is writable by others.", dir);
+                return;
+            }
+            // The temporary file is readable and writable only by this user
+            var temp = Files.createTempFile(_snapshotFile.getParent(), "jwks", ".tmp");
+            _objectMapper.writeValue(temp.toFile(), snapshot);
+            Files.move(temp, _snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            _logger.warn("Failed to save the signing keys to {}: {}", _snapshotFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Check that the file or the directory is owned by this user and is not writable by the group or others
+     *
+     * @param path The file or the directory
+     * @return True if no other user can change it
+     * @throws IOException The exception class for the failure of reading the attributes
+     */
+    private static boolean _isPrivate(Path path) throws IOException {
+        var user = path.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!user.equals(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS))) {
+            return false;
+        }
+        var view = Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view == null) {
+            return true;
+        }
+        var permissions = view.readAttributes().permissions();
+        return !permissions.contains(PosixFilePermission.GROUP_WRITE) && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+    }
+
+    /**
+     * Convert the public key to the JSON Web Key
+     *
+     * @param kid The key id
+     * @param key The public key
+     * @return The JSON Web Key
+     */
+    private static JwkObject _toJwk(String kid, RSAPublicKey key) {
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        var jwk = new JwkObject();
+        jwk.setKty("RSA");
+        jwk.setUse("sig");
+        jwk.setKid(kid);
+        jwk.setN(encoder.encodeToString(_toUnsignedBytes(key.getModulus())));
+        jwk.setE(encoder.encodeToString(_toUnsignedBytes(key.getPublicExponent())));
+        return jwk;
+    }
+
+    /**
+     * Convert the positive integer to the big-endian bytes without the sign byte
+     *
+     * @param value The positive integer
+     * @return The bytes
+     */
+    private static byte[] _toUnsignedBytes(BigInteger value) {
+        var bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            return Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Refresh the keys in the background unless a refresh is already running
+     */
+    private void _refreshAsync() {
+        if (!_refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            _refreshExecutor.execute(() -> {
+                try {
+                    refresh();
+                } catch (JwkException e) {
+                    _logger.warn("Failed to refresh the signing keys: {}", e.getMessage());
+                } finally {
+                    _refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The store is stopped, so the next stale lookup may try again instead of waiting for a refresh that never runs
+            _refreshing.set(false);
+        }
+    }
+
+    /**
+     * The immutable set of the keys indexed by the key id
+     *
+     * @param keys         The public keys by the key id
+     * @param fetchedAt    The epoch milliseconds when the keys were fetched or revalidated
+     * @param etag         The ETag of the response, or null
+     * @param lastModified The Last-Modified epoch milliseconds of the response, or -1
+     */
+    public record KeySet(Map<String, RSAPublicKey> keys, long fetchedAt, String etag, long lastModified) {
+    }
+
+    /**
+     * The content of the snapshot file
+     */
+    @Data
+    public static class Snapshot {
+        private long fetchedAt;
+        private String etag;
+        private long lastModified = -1L;
+        private List<JwkObject> keys;
+    }
+}
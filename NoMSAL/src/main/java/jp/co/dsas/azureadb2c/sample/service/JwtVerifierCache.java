@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.auth0.jwk.JwkException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlow;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the prebuilt token verifiers of one user flow keyed by the key id.
+ * <p>
+ * The issuer and the audience are pinned from the flow when the verifier is built,
+ * so a request only looks up the verifier and checks its own nonce.
+ */
+public class JwtVerifierCache {
+
+    private final B2cFlow _flow;
+
+    private final WebAppConfig _webAppConfig;
+
+    private final JwksKeyStore _keyStore;
+
+    /**
+     * The issuer pinned in the verifiers
+     */
+    private volatile String _issuer;
+
+    /**
+     * The verifiers by the key id
+     */
+    private final ConcurrentHashMap<String, CachedVerifier> _verifiers = new ConcurrentHashMap<>();
+
+    /**
+     * The lookups served by a built verifier, and those that built one
+     */
+    private final Counter _hits;
+
+    private final Counter _misses;
+
+    /**
+     * Constructor
+     *
+     * @param flow          The user flow
+     * @param webAppConfig  The web app configuration
+     * @param keyStore      The signing key cache of the flow
+     * @param meterRegistry The registry of the metrics
+     */
+    public JwtVerifierCache(B2cFlow flow, WebAppConfig webAppConfig, JwksKeyStore keyStore,
+                            MeterRegistry meterRegistry) {
+        this._flow = flow;
+        this._webAppConfig = webAppConfig;
+        this._keyStore = keyStore;
+        this._issuer = flow.getIssuer();
+        this._hits = _cacheCounter(meterRegistry, flow, "hit");
+        this._misses = _cacheCounter(meterRegistry, flow, "miss");
+    }
+
+    /**
+     * Change the issuer, when it is found in the discovery document.
+     * The verifiers with the old issuer are dropped.
+     *
+     * @param issuer The issuer
+     */
+    public void setIssuer(String issuer) {
+        if (!issuer.equals(_issuer)) {
+            _issuer = issuer;
+            _verifiers.clear();
+        }
+    }
+
+    /**
+     * Get the verifier for the key id
+     *
+     * @param kid The key id in the header of the token
+     * @return The verifier
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    public JWTVerifier getVerifier(String kid) throws JwkException {
+        var publicKey = _keyStore.getKey(kid);
+        var cached = _verifiers.get(kid);
+        if (cached != null && cached.publicKey() == publicKey) {
+            _hits.increment();
+            return cached.verifier();
+        }
+        _misses.increment();
+
+        // Build the verifier for a new or rotated key
+        if (cached == null && _verifiers.size() >= _webAppConfig.getJwksMaxSize()) {
+            _verifiers.clear();
+        }
+        var verifier = JWT.require(Algorithm.RSA256(publicKey, null))
+                .withIssuer(_issuer)
+                .withAudience(_flow.getClientId())
+                .build();
+        _verifiers.put(kid, new CachedVerifier(publicKey, verifier));
+        return verifier;
+    }
+
+    /**
+     * Register the counter of the lookups by the result
+     *
+     * @param meterRegistry The registry of the metrics
+     * @param flow          The user flow
+     * @param result        The result of the lookup
+     * @return The counter
+     */
+    private static Counter _cacheCounter(MeterRegistry meterRegistry, B2cFlow flow, String result) {
+        return Counter.builder("b2c.cache.requests")
+                .description("The lookups of the cache by the result")
+                .tag("cache", "jwt_verifier")
+                .tag("flow", flow.getName())
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * The verifier and the key it was built with
+     *
+     * @param publicKey The public key
+     * @param verifier  The verifier
+     */
+    private record CachedVerifier(RSAPublicKey publicKey, JWTVerifier verifier) {
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import jp.co.dsas.azureadb2c.sample.Exception.B2cUnavailableException;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlow;
+import jp.co.dsas.azureadb2c.sample.controller.OpenIdConfiguration;
+import jp.co.dsas.azureadb2c.sample.guard.B2cCallGuard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * The cached discovery document of one user flow.
+ * <p>
+ * Until the document is fetched, the endpoints computed from the configuration are used.
+ * The document is refreshed in the background, and the endpoints are replaced as a whole
+ * only when they have changed, so a request reads them without any lock.
+ */
+public class OpenIdDiscovery {
+
+    private static final Logger _logger = LoggerFactory.getLogger(OpenIdDiscovery.class);
+
+    private final B2cFlow _flow;
+
+    private final String _redirectBaseUrl;
+
+    private final RestTemplate _restTemplate;
+
+    private final B2cCallGuard _guard;
+
+    private volatile FlowEndpoints _endpoints;
+
+    /**
+     * Constructor
+     *
+     * @param flow            The user flow
+     * @param redirectBaseUrl The base URL of this application
+     * @param restTemplate    The shared REST client
+     * @param guard           The bulkhead around the calls to Azure AD B2C
+     */
+    public OpenIdDiscovery(B2cFlow flow, String redirectBaseUrl, RestTemplate restTemplate, B2cCallGuard guard) {
+        this._flow = flow;
+        this._redirectBaseUrl = redirectBaseUrl;
+        this._restTemplate = restTemplate;
+        this._guard = guard;
+        this._endpoints = new FlowEndpoints(flow, null, redirectBaseUrl);
+    }
+
+    /**
+     * Get the current endpoints
+     *
+     * @return The endpoints
+     */
+    public FlowEndpoints getEndpoints() {
+        return _endpoints;
+    }
+
+    /**
+     * Fetch the discovery document and replace the endpoints if they have changed
+     *
+     * @return true if the endpoints have changed
+     * @throws RestClientException     The exception class for the failure of the request
+     * @throws B2cUnavailableException The exception class when the request is rejected by the bulkhead
+     */
+    public boolean refresh() throws B2cUnavailableException {
+        var document = _guard.executeIdempotent(() ->
+                _restTemplate.getForObject(_flow.getOpenIdConfigurationEndpoint(), OpenIdConfiguration.class));
+        var endpoints = new FlowEndpoints(_flow, document, _redirectBaseUrl);
+        if (endpoints.equals(_endpoints)) {
+            return false;
+        }
+        _logger.info("The endpoints of {} have changed: {}", _flow.getName(), endpoints);
+        _endpoints = endpoints;
+        return true;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.session.VersionedAttribute;
+
+import java.io.Serializable;
+
+/**
+ * The tokens of a session and the name of the user flow that issued them, kept as a session attribute.
+ * The tokens are replaced by the background refresh, so a request saving its older copy does not put
+ * the older tokens back.
+ *
+ * @param flow    The name of the user flow
+ * @param token   The tokens
+ * @param version The epoch milliseconds when the tokens were received
+ */
+public record SessionTokens(String flow, TokenInfo token, long version) implements Serializable, VersionedAttribute {
+
+    /**
+     * Constructor for the tokens received now
+     *
+     * @param flow  The name of the user flow
+     * @param token The tokens
+     */
+    public SessionTokens(String flow, TokenInfo token) {
+        this(flow, token, System.currentTimeMillis());
+    }
+
+    /**
+     * The name of the session attribute
+     */
+    public static final String ATTRIBUTE = "tokens";
+}
@@ -0,0 +1,377 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+import jp.co.dsas.azureadb2c.sample.Exception.B2cUnavailableException;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.session.LocalSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.session.MapSession;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The service that refreshes the access token of each session before it expires.
+ * <p>
+ * The tokens are kept in the session as {@link SessionTokens}, so they live and die with the
+ * session and survive a restart with the mapped_file store. The scheduler reads and writes them
+ * through the {@link LocalSessionRepository}. The deadlines of all the sessions are held in one
+ * {@link DelayQueue} and taken by a single scheduler thread, which hands the refreshes to a small
+ * pool. Each deadline is moved earlier by a random jitter, so the sessions signed in at the same
+ * time do not refresh at the same time. Concurrent refreshes of the same session share one request
+ * to the token endpoint, and the requests of the user only read the current tokens, so they never
+ * wait for a refresh.
+ */
+@Component
+public class TokenRefreshService implements HttpSessionListener {
+
+    private static final Logger _logger = LoggerFactory.getLogger(TokenRefreshService.class);
+
+    private final WebAppConfig _webAppConfig;
+
+    private final B2cTokenClient _tokenClient;
+
+    private final B2cFlowRegistry _flowRegistry;
+
+    private final LocalSessionRepository _sessionRepository;
+
+    /**
+     * The current deadline by the session id. A deadline that is no longer here is skipped.
+     */
+    private final ConcurrentHashMap<String, Deadline> _scheduled = new ConcurrentHashMap<>();
+
+    /**
+     * The outstanding refreshes by the session id
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<TokenInfo>> _inFlight = new ConcurrentHashMap<>();
+
+    private final DelayQueue<Deadline> _deadlines = new DelayQueue<>();
+
+    private final ExecutorService _refreshExecutor;
+
+    private Thread _scheduler;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig      The web app configuration
+     * @param tokenClient       The client for the token endpoint
+     * @param flowRegistry      The user flows that issue the tokens
+     * @param sessionRepository The sessions holding the tokens
+     */
+    public TokenRefreshService(WebAppConfig webAppConfig, B2cTokenClient tokenClient, B2cFlowRegistry flowRegistry,
+                               LocalSessionRepository sessionRepository) {
+        this._webAppConfig = webAppConfig;
+        this._tokenClient = tokenClient;
+        this._flowRegistry = flowRegistry;
+        this._sessionRepository = sessionRepository;
+        this._refreshExecutor = Executors.newFixedThreadPool(webAppConfig.getTokenRefreshMaxConcurrency(),
+                webAppConfig.isVirtualThreads()
+                        ? Thread.ofVirtual().name("token-refresh-", 0).factory()
+                        : Thread.ofPlatform().name("token-refresh-", 0).daemon().factory());
+    }
+
+    /**
+     * Schedule the tokens of the sessions already stored, then start the scheduler
+     */
+    @PostConstruct
+    public void start() {
+        for (String sessionId : _sessionRepository.getSessionIds()) {
+            var session = _sessionRepository.findById(sessionId);
+            if (session != null && session.getAttribute(SessionTokens.ATTRIBUTE) instanceof SessionTokens tokens) {
+                _schedule(sessionId, tokens);
+            }
+        }
+        _scheduler = Thread.ofPlatform().name("token-refresh-scheduler").daemon().start(this::_run);
+    }
+
+    /**
+     * Stop the scheduler and the running refreshes
+     */
+    @PreDestroy
+    public void stop() {
+        if (_scheduler != null) {
+            _scheduler.interrupt();
+        }
+        _refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Keep the tokens in the session and schedule their refresh
+     *
+     * @param session The session
+     * @param flow    The user flow that issued the tokens
+     * @param token   The tokens
+     * @throws SampleException The exception class when the session with the tokens cannot be stored
+     */
+    public void register(HttpSession session, FlowContext flow, TokenInfo token) throws SampleException {
+        var tokens = new SessionTokens(flow.flow().getName(), token);
+        // Fail the sign-in now, because the session is saved only after the page is sent
+        var copy = new MapSession(session.getId());
+        for (var name : Collections.list(session.getAttributeNames())) {
+            copy.setAttribute(name, session.getAttribute(name));
+        }
+        copy.setAttribute(SessionTokens.ATTRIBUTE, tokens);
+        if (!_sessionRepository.fits(copy)) {
+            throw new SampleException(SampleException.Reason.SESSION_TOO_LARGE,
+                    "The tokens are too large to keep in the session.");
+        }
+        session.setAttribute(SessionTokens.ATTRIBUTE, tokens);
+        _schedule(session.getId(), tokens);
+    }
+
+    /**
+     * Get the current tokens of the session without refreshing them
+     *
+     * @param session The session
+     * @return The tokens, or null if the session has no tokens
+     */
+    public TokenInfo getTokens(HttpSession session) {
+        return session.getAttribute(SessionTokens.ATTRIBUTE) instanceof SessionTokens tokens ? tokens.token() : null;
+    }
+
+    /**
+     * Forget the tokens of the session. The scheduled refresh is skipped when it comes due.
+     *
+     * @param session The session
+     */
+    public void remove(HttpSession session) {
+        session.removeAttribute(SessionTokens.ATTRIBUTE);
+        _scheduled.remove(session.getId());
+    }
+
+    /**
+     * Get the number of the sessions whose tokens are scheduled for refresh
+     *
+     * @return The number of the sessions
+     */
+    public int size() {
+        return _scheduled.size();
+    }
+
+    /**
+     * Refresh the tokens of the session in the background, sharing the refresh already running
+     *
+     * @param sessionId The session id
+     * @return The refreshed tokens, or null if the session has no tokens
+     */
+    public CompletableFuture<TokenInfo> refreshAsync(String sessionId) {
+        var future = new CompletableFuture<TokenInfo>();
+        var running = _inFlight.putIfAbsent(sessionId, future);
+        if (running != null) {
+            return running;
+        }
+        try {
+            _refreshExecutor.execute(() -> {
+                try {
+                    future.complete(_refresh(sessionId));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    _inFlight.remove(sessionId, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The service is stopped, so fail the callers instead of leaving them waiting
+            _inFlight.remove(sessionId, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        _scheduled.remove(event.getSession().getId());
+    }
+
+    /**
+     * Take the deadlines as they come due and start the refreshes
+     */
+    private void _run() {
+        try {
+            while (true) {
+                var deadline = _deadlines.take();
+                // Skip the deadline of the tokens already refreshed or removed
+                if (_scheduled.get(deadline.sessionId()) == deadline) {
+                    refreshAsync(deadline.sessionId());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Redeem the refresh token of the session and schedule the next refresh
+     *
+     * @param sessionId The session id
+     * @return The refreshed tokens, or null if the session has no tokens
+     */
+    private TokenInfo _refresh(String sessionId) {
+        var current = _readTokens(sessionId);
+        if (current == null) {
+            _scheduled.remove(sessionId);
+            return null;
+        }
+        var now = System.currentTimeMillis();
+        var flow = _flowRegistry.get(current.flow());
+        if (flow == null || current.token().getRefreshTokenExpiresAt().toEpochMilli() <= now) {
+            _drop(sessionId, current);
+            return null;
+        }
+        try {
+            var refreshed = new SessionTokens(current.flow(),
+                    _tokenClient.refresh(flow, current.token().getRefreshToken()));
+            // Keep the tokens only if the session has not signed out or signed in again meanwhile
+            if (_replaceTokens(sessionId, current, refreshed)) {
+                _schedule(sessionId, refreshed);
+            }
+            return refreshed.token();
+        } catch (HttpServerErrorException | ResourceAccessException | B2cUnavailableException e) {
+            // Azure AD B2C is failing or unreachable, so try again later
+            _logger.warn("Failed to refresh the tokens: {}", e.getMessage());
+            var retry = new Deadline(sessionId, now + _webAppConfig.getTokenRefreshRetryDelay().toMillis());
+            if (_scheduled.computeIfPresent(sessionId, (id, deadline) -> retry) == retry) {
+                _deadlines.add(retry);
+            }
+            throw new CompletionException(e);
+        } catch (RestClientException e) {
+            // The refresh token was rejected, for example revoked or expired, so asking again cannot succeed
+            _logger.warn("The refresh token was rejected: {}", e.getMessage());
+            _drop(sessionId, current);
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Read the tokens of the stored session
+     *
+     * @param sessionId The session id
+     * @return The tokens, or null if the session is gone or has no tokens
+     */
+    private SessionTokens _readTokens(String sessionId) {
+        var session = _sessionRepository.findById(sessionId);
+        return session != null && session.getAttribute(SessionTokens.ATTRIBUTE) instanceof SessionTokens tokens
+                ? tokens : null;
+    }
+
+    /**
+     * Replace the tokens of the stored session if they are still the expected ones.
+     * A request that saves its older copy of the session afterwards keeps the new tokens,
+     * because the session repository keeps the {@link SessionTokens} of the newer version.
+     * New tokens too large for the session are removed with the old ones.
+     *
+     * @param sessionId The session id
+     * @param expected  The tokens that were refreshed
+     * @param tokens    The new tokens, or null to remove them
+     * @return true if the tokens were replaced
+     */
+    private boolean _replaceTokens(String sessionId, SessionTokens expected, SessionTokens tokens) {
+        var session = _sessionRepository.findById(sessionId);
+        if (session == null || !expected.equals(session.getAttribute(SessionTokens.ATTRIBUTE))) {
+            return false;
+        }
+        session.setAttribute(SessionTokens.ATTRIBUTE, tokens);
+        if (tokens != null && !_sessionRepository.fits(session)) {
+            _logger.warn("The refreshed tokens are too large to keep in the session, so they are removed.");
+            session.removeAttribute(SessionTokens.ATTRIBUTE);
+            _sessionRepository.save(session);
+            _scheduled.remove(sessionId);
+            return false;
+        }
+        _sessionRepository.save(session);
+        return true;
+    }
+
+    /**
+     * Remove the tokens that can no longer be refreshed from the session and stop refreshing them
+     *
+     * @param sessionId The session id
+     * @param current   The tokens
+     */
+    private void _drop(String sessionId, SessionTokens current) {
+        if (_replaceTokens(sessionId, current, null)) {
+            _scheduled.remove(sessionId);
+        }
+    }
+
+    /**
+     * Schedule the refresh of the tokens
+     *
+     * @param sessionId The session id
+     * @param tokens    The tokens
+     */
+    private void _schedule(String sessionId, SessionTokens tokens) {
+        var token = tokens.token();
+        var jitter = ThreadLocalRandom.current().nextLong(_webAppConfig.getTokenRefreshJitter().toMillis() + 1);
+        var expiresAt = token.getAccessTokenExpiresAt().toEpochMilli();
+        var refreshAt = expiresAt - _webAppConfig.getTokenRefreshLead().toMillis() - jitter;
+        // Never refresh in the first half of the lifetime, so short-lived tokens are not refreshed in a loop
+        var halfLife = token.getNotBeforeInstant().toEpochMilli() + token.getExpiresIn() * 1000L / 2;
+        var deadline = new Deadline(sessionId, Math.max(refreshAt, halfLife));
+        _scheduled.put(sessionId, deadline);
+        _deadlines.add(deadline);
+    }
+
+    /**
+     * The time when the tokens of a session are refreshed
+     *
+     * @param sessionId The session id
+     * @param dueAt     The epoch milliseconds
+     */
+    private record Deadline(String sessionId, long dueAt) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Deadline) other).dueAt);
+        }
+    }
+}
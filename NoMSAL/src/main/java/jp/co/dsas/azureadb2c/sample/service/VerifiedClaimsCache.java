@@ -0,0 +1,190 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.auth0.jwk.JwkException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Cache of the verified claims of the bearer tokens keyed by the SHA-256 digest of the token.
+ * <p>
+ * The signature of a token is verified once with the signing keys of the user flow that issued it, and
+ * the claims are reused until the configured TTL or the expiry of the token, whichever comes
+ * first. The number of the entries is capped, and the oldest entries are evicted first.
+ */
+@Component
+public class VerifiedClaimsCache {
+
+    private final WebAppConfig _webAppConfig;
+
+    private final B2cFlowRegistry _flowRegistry;
+
+    /**
+     * The verified claims by the digest of the token
+     */
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<>();
+
+    /**
+     * The digests in the order they were added, for the eviction
+     */
+    private final ConcurrentLinkedQueue<String> _insertionOrder = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The lookups served by the cache, and those that verified the token
+     */
+    private final Counter _hits;
+
+    private final Counter _misses;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig  The web app configuration
+     * @param flowRegistry  The registry of the user flows
+     * @param meterRegistry The registry of the metrics
+     */
+    public VerifiedClaimsCache(WebAppConfig webAppConfig, B2cFlowRegistry flowRegistry, MeterRegistry meterRegistry) {
+        this._webAppConfig = webAppConfig;
+        this._flowRegistry = flowRegistry;
+        this._hits = Counter.builder("b2c.cache.requests")
+                .description("The lookups of the cache by the result")
+                .tag("cache", "bearer_claims")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this._misses = Counter.builder("b2c.cache.requests")
+                .description("The lookups of the cache by the result")
+                .tag("cache", "bearer_claims")
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Verify the token, or return its claims verified before
+     *
+     * @param token The bearer token
+     * @return The verified token
+     * @throws JwkException The exception class for the JSON Web Key
+     * @throws JWTVerificationException The exception class for the invalid token
+     */
+    public DecodedJWT verify(String token) throws JwkException {
+        var digest = _digest(token);
+        var now = System.currentTimeMillis();
+        var cached = _entries.get(digest);
+        if (cached != null) {
+            if (cached.expiresAt() > now) {
+                _hits.increment();
+                return cached.jwt();
+            }
+            _entries.remove(digest, cached);
+        }
+        _misses.increment();
+
+        var decodedJwt = JWT.decode(token);
+        var flow = _flowRegistry.forToken(decodedJwt);
+        if (flow == null) {
+            throw new JWTVerificationException("The user flow of the token is unknown.");
+        }
+        var verifiedJwt = flow.verifierCache().getVerifier(decodedJwt.getKeyId()).verify(decodedJwt);
+        var expiresAt = now + _webAppConfig.getBearerCacheTtl().toMillis();
+        if (verifiedJwt.getExpiresAtAsInstant() != null) {
+            expiresAt = Math.min(expiresAt, verifiedJwt.getExpiresAtAsInstant().toEpochMilli());
+        }
+        if (_entries.put(digest, new Entry(verifiedJwt, expiresAt)) == null) {
+            _insertionOrder.add(digest);
+            _evict();
+        }
+        return verifiedJwt;
+    }
+
+    /**
+     * Get the number of the cached tokens
+     *
+     * @return The number of the cached tokens
+     */
+    public int size() {
+        return _entries.size();
+    }
+
+    /**
+     * Remove the expired entries
+     */
+    @Scheduled(fixedDelay = 60_000L)
+    public void sweep() {
+        var now = System.currentTimeMillis();
+        _entries.values().removeIf(entry -> entry.expiresAt() <= now);
+        _insertionOrder.removeIf(digest -> !_entries.containsKey(digest));
+    }
+
+    /**
+     * Evict the oldest entries while the cache is over its size
+     */
+    private void _evict() {
+        while (_entries.size() > _webAppConfig.getBearerCacheMaxSize()) {
+            var oldest = _insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            _entries.remove(oldest);
+        }
+    }
+
+    /**
+     * Compute the SHA-256 digest of the token, so the token itself is not kept as the key
+     *
+     * @param token The token
+     * @return The digest encoded by BASE64
+     */
+    private static String _digest(String token) {
+        try {
+            var hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The verified token and the epoch milliseconds when the entry expires
+     *
+     * @param jwt       The verified token
+     * @param expiresAt The epoch milliseconds
+     */
+    private record Entry(DecodedJWT jwt, long expiresAt) {
+    }
+}
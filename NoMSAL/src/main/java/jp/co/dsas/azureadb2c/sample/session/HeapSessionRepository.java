@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.session;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.session.MapSession;
+import org.springframework.session.events.SessionDeletedEvent;
+import org.springframework.session.events.SessionExpiredEvent;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The session repository that keeps the sessions on the heap.
+ * <p>
+ * Each session is stored as a copy, as {@link org.springframework.session.MapSessionRepository} does,
+ * so a request and a background job never change the same instance. A {@link VersionedAttribute} newer
+ * than the one in the saved copy is kept. A deleted or expired session is published as
+ * {@link SessionDeletedEvent} or {@link SessionExpiredEvent}.
+ */
+public class HeapSessionRepository implements LocalSessionRepository {
+
+    private final ConcurrentHashMap<String, MapSession> _sessions = new ConcurrentHashMap<>();
+
+    private final Duration _defaultMaxInactiveInterval;
+
+    private ApplicationEventPublisher _eventPublisher = event -> {
+    };
+
+    /**
+     * Constructor
+     *
+     * @param defaultMaxInactiveInterval The lifetime of a new session
+     */
+    public HeapSessionRepository(Duration defaultMaxInactiveInterval) {
+        this._defaultMaxInactiveInterval = defaultMaxInactiveInterval;
+    }
+
+    /**
+     * Set the publisher of the session events
+     *
+     * @param eventPublisher The publisher
+     */
+    public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this._eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public MapSession createSession() {
+        var session = new MapSession();
+        session.setMaxInactiveInterval(_defaultMaxInactiveInterval);
+        return session;
+    }
+
+    @Override
+    public void save(MapSession session) {
+        if (!session.getId().equals(session.getOriginalId())) {
+            _sessions.remove(session.getOriginalId());
+        }
+        var copy = new MapSession(session);
+        _sessions.compute(session.getId(), (id, stored) -> {
+            // A background job saved a newer attribute after this copy was read, so keep it
+            if (stored != null) {
+                VersionedAttribute.keepNewer(stored, copy);
+            }
+            return copy;
+        });
+    }
+
+    @Override
+    public MapSession findById(String id) {
+        var saved = _sessions.get(id);
+        if (saved == null) {
+            return null;
+        }
+        if (saved.isExpired()) {
+            if (_sessions.remove(id, saved)) {
+                _eventPublisher.publishEvent(new SessionExpiredEvent(this, saved));
+            }
+            return null;
+        }
+        return new MapSession(saved);
+    }
+
+    @Override
+    public void deleteById(String id) {
+        var saved = _sessions.remove(id);
+        if (saved != null) {
+            _eventPublisher.publishEvent(new SessionDeletedEvent(this, saved));
+        }
+    }
+
+    @Override
+    public Set<String> getSessionIds() {
+        return Set.copyOf(_sessions.keySet());
+    }
+
+    /**
+     * Remove the expired sessions
+     */
+    @Scheduled(fixedDelay = 60_000L)
+    public void sweep() {
+        _sessions.forEach((id, session) -> {
+            if (session.isExpired() && _sessions.remove(id, session)) {
+                _eventPublisher.publishEvent(new SessionExpiredEvent(this, session));
+            }
+        });
+    }
+
+    /**
+     * Get the number of the sessions
+     *
+     * @return The number of the sessions
+     */
+    public int size() {
+        return _sessions.size();
+    }
+}
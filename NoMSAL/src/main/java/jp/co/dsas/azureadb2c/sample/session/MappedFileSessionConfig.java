@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.session;
+
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.session.MapSession;
+import org.springframework.session.config.annotation.web.http.EnableSpringHttpSession;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The config class that replaces the sessions of the servlet container with the memory-mapped session store
+ */
+@Configuration
+@EnableSpringHttpSession
+@ConditionalOnProperty(name = "spring.application.session.store", havingValue = "mapped_file")
+public class MappedFileSessionConfig {
+
+    /**
+     * The memory-mapped session store
+     *
+     * @param webAppConfig     The web app configuration
+     * @param serverProperties The server configuration for the session timeout
+     * @param eventPublisher   The publisher of the deleted and expired sessions
+     * @return The session repository
+     * @throws IOException The exception class for the file that cannot be mapped
+     */
+    @Bean
+    public MappedFileSessionRepository sessionRepository(WebAppConfig webAppConfig, ServerProperties serverProperties,
+                                                         ApplicationEventPublisher eventPublisher) throws IOException {
+        var timeout = serverProperties.getServlet().getSession().getTimeout();
+        var repository = new MappedFileSessionRepository(
+                Path.of(webAppConfig.getSessionFile()),
+                webAppConfig.getSessionSlotSize(),
+                webAppConfig.getSessionMaxSessions(),
+                timeout != null ? timeout : MapSession.DEFAULT_MAX_INACTIVE_INTERVAL);
+        repository.setApplicationEventPublisher(eventPublisher);
+        return repository;
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.session.MapSession;
+import org.springframework.session.events.SessionDeletedEvent;
+import org.springframework.session.events.SessionExpiredEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The session repository backed by a memory-mapped file on the local host.
+ * <p>
+ * The file is divided into fixed-size slots and each session is written to its own slot in
+ * the {@link SessionCodec} format, prefixed by its length (0 for a free slot). Only the slot
+ * number and the expiry of each session are kept on the heap. The sessions survive a restart.
+ * The index of the slots and the free list are built only when the file is opened, so the file
+ * is locked and a second process fails to open it. A {@link VersionedAttribute} newer than the one in the
+ * saved copy of the session is kept. A deleted or expired session is published as
+ * {@link SessionDeletedEvent} or {@link SessionExpiredEvent}, so the session listeners run.
+ */
+public class MappedFileSessionRepository implements LocalSessionRepository, AutoCloseable {
+
+    private static final Logger _logger = LoggerFactory.getLogger(MappedFileSessionRepository.class);
+
+    /**
+     * The number of the locks striped over the slots
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private final FileChannel _channel;
+
+    private final MappedByteBuffer _buffer;
+
+    private final int _slotSize;
+
+    private final Duration _defaultMaxInactiveInterval;
+
+    /**
+     * The slot and the expiry by the session id
+     */
+    private final ConcurrentHashMap<String, SlotRef> _index = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<Integer> _freeSlots = new ConcurrentLinkedQueue<>();
+
+    private final Object[] _locks = new Object[LOCK_STRIPES];
+
+    private ApplicationEventPublisher _eventPublisher = event -> {
+    };
+
+    /**
+     * Constructor
+     *
+     * @param file                       The file of the sessions
+     * @param slotSize                   The size of one slot in bytes
+     * @param slotCount                  The number of the slots
+     * @param defaultMaxInactiveInterval The lifetime of a new session
+     * @throws IOException The exception class for the file that cannot be mapped or is used by another process
+     */
+    public MappedFileSessionRepository(Path file, int slotSize, int slotCount, Duration defaultMaxInactiveInterval)
+            throws IOException {
+        if ((long) slotSize * slotCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The session file must be smaller than 2GB.");
+        }
+        this._slotSize = slotSize;
+        this._defaultMaxInactiveInterval = defaultMaxInactiveInterval;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            _locks[i] = new Object();
+        }
+        // The sessions hold the state of the signed-in users, so a new directory and file are private to this user
+        var posix = file.getFileSystem().supportedFileAttributeViews().contains("posix");
+        var dir = file.toAbsolutePath().getParent();
+        if (Files.notExists(dir)) {
+            if (posix) {
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(dir);
+            }
+        }
+        var options = Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this._channel = posix
+                ? FileChannel.open(file, options, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+                : FileChannel.open(file, options);
+        // The lock is released when the channel is closed, also when the process dies
+        FileLock lock;
+        try {
+            lock = _channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            _channel.close();
+            throw new IOException("The session file is used by another process: " + file);
+        }
+        this._buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slotSize * slotCount);
+        _loadIndex(slotCount);
+    }
+
+    /**
+     * Set the publisher of the session events
+     *
+     * @param eventPublisher The publisher
+     */
+    public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this._eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public MapSession createSession() {
+        var session = new MapSession();
+        session.setMaxInactiveInterval(_defaultMaxInactiveInterval);
+        return session;
+    }
+
+    @Override
+    public void save(MapSession session) {
+        byte[] bytes;
+        try {
+            bytes = SessionCodec.encode(session);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        _checkSize(bytes);
+
+        var id = session.getId();
+        var originalId = session.getOriginalId();
+        var expiresAt = _expiresAt(session);
+        var version = VersionedAttribute.versionOf(session);
+        // The session id was changed, so take the slot away from the original id
+        var moved = id.equals(originalId) ? null : _index.remove(originalId);
+        var replaced = new int[]{-1};
+        // The slot is written while the id is held by compute, so deleteById and sweep cannot free it meanwhile
+        _index.compute(id, (key, current) -> {
+            int slot;
+            if (current != null) {
+                slot = current.slot();
+                if (moved != null) {
+                    replaced[0] = moved.slot();
+                }
+            } else {
+                slot = moved != null ? moved.slot() : _allocateSlot();
+            }
+            var previous = current != null ? current : moved;
+            if (previous != null && previous.version() > version) {
+                // A background job saved a newer attribute after this copy was read, so keep it
+                var merged = _keepNewer(previous.slot(), session);
+                if (merged != null) {
+                    _write(slot, merged);
+                    return new SlotRef(slot, expiresAt, previous.version());
+                }
+            }
+            _write(slot, bytes);
+            return new SlotRef(slot, expiresAt, version);
+        });
+        if (replaced[0] >= 0) {
+            _freeSlot(replaced[0]);
+        }
+    }
+
+    @Override
+    public boolean fits(MapSession session) {
+        try {
+            return SessionCodec.encode(session).length + Integer.BYTES <= _slotSize;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public MapSession findById(String id) {
+        var ref = _index.get(id);
+        if (ref == null) {
+            return null;
+        }
+        MapSession session;
+        try {
+            session = _read(ref.slot());
+        } catch (IOException e) {
+            _logger.warn("The session in slot {} is broken: {}", ref.slot(), e.getMessage());
+            deleteById(id);
+            return null;
+        }
+        if (session == null || !id.equals(session.getId())) {
+            return null;
+        }
+        if (session.isExpired()) {
+            if (_index.remove(id, ref)) {
+                _remove(id, ref.slot(), true);
+            }
+            return null;
+        }
+        return session;
+    }
+
+    @Override
+    public void deleteById(String id) {
+        var ref = _index.remove(id);
+        if (ref != null) {
+            _remove(id, ref.slot(), false);
+        }
+    }
+
+    @Override
+    public Set<String> getSessionIds() {
+        return Set.copyOf(_index.keySet());
+    }
+
+    /**
+     * Remove the expired sessions
+     */
+    @Scheduled(fixedDelay = 60_000L)
+    public void sweep() {
+        var now = System.currentTimeMillis();
+        _index.forEach((id, ref) -> {
+            if (ref.expiresAt() < now && _index.remove(id, ref)) {
+                _remove(id, ref.slot(), true);
+            }
+        });
+    }
+
+    /**
+     * Get the number of the sessions
+     *
+     * @return The number of the sessions
+     */
+    public int size() {
+        return _index.size();
+    }
+
+    /**
+     * Flush the sessions to the file and close it
+     *
+     * @throws IOException The exception class for the failure of closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        _buffer.force();
+        _channel.close();
+    }
+
+    /**
+     * Rebuild the index from the sessions in the file
+     *
+     * @param slotCount The number of the slots
+     */
+    private void _loadIndex(int slotCount) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            MapSession session = null;
+            try {
+                session = _read(slot);
+            } catch (IOException e) {
+                _logger.warn("The session in slot {} is broken: {}", slot, e.getMessage());
+            }
+            if (session == null || session.isExpired() || _index.containsKey(session.getId())) {
+                if (session != null) {
+                    _buffer.putInt(slot * _slotSize, 0);
+                }
+                _freeSlots.add(slot);
+            } else {
+                _index.put(session.getId(), new SlotRef(slot, _expiresAt(session), VersionedAttribute.versionOf(session)));
+            }
+        }
+        _logger.info("Loaded {} sessions from the session file.", _index.size());
+    }
+
+    /**
+     * Read the session in the slot
+     *
+     * @param slot The slot
+     * @return The session, or null if the slot is free
+     * @throws IOException The exception class for the broken data
+     */
+    private MapSession _read(int slot) throws IOException {
+        var offset = slot * _slotSize;
+        byte[] bytes;
+        int length;
+        synchronized (_lock(slot)) {
+            length = _buffer.getInt(offset);
+            if (length <= 0) {
+                return null;
+            }
+            if (length > _slotSize - Integer.BYTES) {
+                throw new IOException("Invalid length " + length);
+            }
+            bytes = new byte[length];
+            _buffer.get(offset + Integer.BYTES, bytes);
+        }
+        return SessionCodec.decode(bytes, length);
+    }
+
+    /**
+     * Encode the saved session with the newer versioned attributes of the stored session
+     *
+     * @param slot  The slot of the stored session
+     * @param saved The session being saved
+     * @return The encoded session, or null if the stored session has no newer attribute
+     */
+    private byte[] _keepNewer(int slot, MapSession saved) {
+        try {
+            var stored = _read(slot);
+            var merged = new MapSession(saved);
+            if (stored == null || !VersionedAttribute.keepNewer(stored, merged)) {
+                return null;
+            }
+            var bytes = SessionCodec.encode(merged);
+            _checkSize(bytes);
+            return bytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Check that the encoded session fits in a slot
+     *
+     * @param bytes The encoded session
+     * @throws IllegalStateException The exception class when the session is larger than a slot
+     */
+    private void _checkSize(byte[] bytes) {
+        if (bytes.length + Integer.BYTES > _slotSize) {
+            throw new IllegalStateException("The session is larger than a slot: " + bytes.length + " bytes");
+        }
+    }
+
+    /**
+     * Write the session to the slot
+     *
+     * @param slot  The slot
+     * @param bytes The encoded session
+     */
+    private void _write(int slot, byte[] bytes) {
+        var offset = slot * _slotSize;
+        synchronized (_lock(slot)) {
+            _buffer.put(offset + Integer.BYTES, bytes);
+            _buffer.putInt(offset, bytes.length);
+        }
+    }
+
+    /**
+     * Take a free slot
+     *
+     * @return The slot
+     */
+    private int _allocateSlot() {
+        var slot = _freeSlots.poll();
+        if (slot == null) {
+            throw new IllegalStateException("The session file is full.");
+        }
+        return slot;
+    }
+
+    /**
+     * Free the slot of the session removed from the index and publish the event
+     *
+     * @param id      The session id
+     * @param slot    The slot
+     * @param expired Whether the session has expired
+     */
+    private void _remove(String id, int slot, boolean expired) {
+        MapSession session = null;
+        try {
+            session = _read(slot);
+        } catch (IOException e) {
+            _logger.warn("The session in slot {} is broken: {}", slot, e.getMessage());
+        }
+        _freeSlot(slot);
+        if (session == null) {
+            session = new MapSession(id);
+        }
+        _eventPublisher.publishEvent(expired
+                ? new SessionExpiredEvent(this, session)
+                : new SessionDeletedEvent(this, session));
+    }
+
+    /**
+     * Mark the slot as free and return it to the free list
+     *
+     * @param slot The slot
+     */
+    private void _freeSlot(int slot) {
+        synchronized (_lock(slot)) {
+            _buffer.putInt(slot * _slotSize, 0);
+        }
+        _freeSlots.add(slot);
+    }
+
+    private Object _lock(int slot) {
+        return _locks[slot % LOCK_STRIPES];
+    }
+
+    private static long _expiresAt(MapSession session) {
+        return session.getLastAccessedTime().plus(session.getMaxInactiveInterval()).toEpochMilli();
+    }
+
+    /**
+     * The slot of a session, the epoch milliseconds when the session expires and the version of its versioned attributes
+     *
+     * @param slot      The slot
+     * @param expiresAt The epoch milliseconds
+     * @param version   The largest version of the versioned attributes, or 0
+     */
+    private record SlotRef(int slot, long expiresAt, long version) {
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.session;
+
+import org.springframework.session.MapSession;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The compact binary format of a session.
+ * <p>
+ * The layout is {@code id, creation time, last accessed time, max inactive seconds, attribute count}
+ * followed by {@code name, type tag, value} for each attribute. The attributes of the sign-in
+ * (strings, integers, longs and booleans) are written in their primitive form. Any other value
+ * falls back to Java serialization only if its class is in {@link #SERIALIZABLE_CLASSES}, and it is
+ * read back through a filter that rejects every other class, because the file can be changed
+ * outside of this process.
+ */
+public final class SessionCodec {
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_STRING = 1;
+
+    private static final byte TYPE_INTEGER = 2;
+
+    private static final byte TYPE_LONG = 3;
+
+    private static final byte TYPE_BOOLEAN = 4;
+
+    private static final byte TYPE_SERIALIZABLE = 5;
+
+    /**
+     * The classes of the attributes that may be stored by Java serialization
+     */
+    static final Set<String> SERIALIZABLE_CLASSES = Set.of(
+            "jp.co.dsas.azureadb2c.sample.service.SessionTokens",
+            "jp.co.dsas.azureadb2c.sample.controller.TokenInfo",
+            "java.time.Instant",
+            "java.time.Ser");
+
+    /**
+     * The filter that lets only the allowed classes be deserialized.
+     * The classes of the primitive forms never reach it, so they are not listed.
+     */
+    private static final ObjectInputFilter SERIALIZATION_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=8;maxrefs=256;maxbytes=65536;"
+                    + SERIALIZABLE_CLASSES.stream().map(name -> name + ";").collect(Collectors.joining())
+                    + "!*");
+
+    private SessionCodec() {
+    }
+
+    /**
+     * Encode the session
+     *
+     * @param session The session
+     * @return The encoded session
+     * @throws IOException The exception class for an attribute that cannot be serialized
+     */
+    public static byte[] encode(MapSession session) throws IOException {
+        var bytes = new ByteArrayOutputStream(256);
+        var out = new DataOutputStream(bytes);
+        out.writeUTF(session.getId());
+        out.writeLong(session.getCreationTime().toEpochMilli());
+        out.writeLong(session.getLastAccessedTime().toEpochMilli());
+        out.writeInt((int) session.getMaxInactiveInterval().toSeconds());
+        var names = session.getAttributeNames();
+        out.writeShort(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+            _writeValue(out, session.getAttribute(name));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the session
+     *
+     * @param bytes  The buffer
+     * @param length The length of the encoded session in the buffer
+     * @return The session
+     * @throws IOException The exception class for the broken data
+     */
+    public static MapSession decode(byte[] bytes, int length) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+        var session = new MapSession(in.readUTF());
+        session.setCreationTime(Instant.ofEpochMilli(in.readLong()));
+        session.setLastAccessedTime(Instant.ofEpochMilli(in.readLong()));
+        session.setMaxInactiveInterval(Duration.ofSeconds(in.readInt()));
+        int count = in.readShort();
+        for (int i = 0; i < count; i++) {
+            var name = in.readUTF();
+            session.setAttribute(name, _readValue(in));
+        }
+        return session;
+    }
+
+    /**
+     * Write the attribute value with its type tag
+     *
+     * @param out   The output
+     * @param value The value
+     * @throws IOException The exception class for a value that cannot be serialized
+     */
+    private static void _writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String string) {
+            out.writeByte(TYPE_STRING);
+            // writeUTF is limited to 64KB, which tokens do not exceed
+            out.writeUTF(string);
+        } else if (value instanceof Integer integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt(integer);
+        } else if (value instanceof Long longValue) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(longValue);
+        } else if (value instanceof Boolean bool) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean(bool);
+        } else if (value instanceof Serializable && SERIALIZABLE_CLASSES.contains(value.getClass().getName())) {
+            var bytes = new ByteArrayOutputStream();
+            try (var objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(value);
+            }
+            out.writeByte(TYPE_SERIALIZABLE);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        } else {
+            throw new IOException("The session attribute cannot be stored: " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Read the attribute value written with its type tag
+     *
+     * @param in The input
+     * @return The value
+     * @throws IOException The exception class for the broken data
+     */
+    private static Object _readValue(DataInputStream in) throws IOException {
+        var type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return in.readUTF();
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_SERIALIZABLE:
+                var length = in.readInt();
+                if (length < 0 || length > in.available()) {
+                    throw new IOException("Invalid length of the session attribute: " + length);
+                }
+                var bytes = new byte[length];
+                in.readFully(bytes);
+                try (var objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    objectIn.setObjectInputFilter(SERIALIZATION_FILTER);
+                    return objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default:
+                throw new IOException("Unknown type of the session attribute: " + type);
+        }
+    }
+}
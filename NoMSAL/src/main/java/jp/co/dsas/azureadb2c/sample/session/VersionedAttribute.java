@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.session;
+
+import org.springframework.session.Session;
+
+/**
+ * The session attribute that is also written by a background job, outside of the requests.
+ * <p>
+ * A request saves the whole copy of the session it read, so it would put back the value the job
+ * replaced meanwhile. The repositories keep the stored value instead if its version is newer.
+ */
+public interface VersionedAttribute {
+
+    /**
+     * Get the version of the value. A later value has a larger version.
+     *
+     * @return The version
+     */
+    long version();
+
+    /**
+     * Get the largest version of the versioned attributes of the session
+     *
+     * @param session The session
+     * @return The version, or 0 if the session has no versioned attribute
+     */
+    static long versionOf(Session session) {
+        long version = 0;
+        for (String name : session.getAttributeNames()) {
+            if (session.getAttribute(name) instanceof VersionedAttribute value) {
+                version = Math.max(version, value.version());
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Copy the versioned attributes of the stored session that are newer than those of the saved session
+     *
+     * @param stored The session in the repository
+     * @param saved  The session being saved
+     * @return true if an attribute was copied
+     */
+    static boolean keepNewer(Session stored, Session saved) {
+        var copied = false;
+        for (String name : saved.getAttributeNames()) {
+            if (saved.getAttribute(name) instanceof VersionedAttribute value
+                    && stored.getAttribute(name) instanceof VersionedAttribute newer
+                    && newer.version() > value.version()) {
+                saved.setAttribute(name, newer);
+                copied = true;
+            }
+        }
+        return copied;
+    }
+}
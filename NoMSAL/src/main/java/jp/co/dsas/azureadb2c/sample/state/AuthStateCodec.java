@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.state;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * The codec that encrypts and authenticates the state, the nonce and the expiry with AES-GCM.
+ * <p>
+ * The GCM tag signs the whole value, so a value that was modified or encrypted with another
+ * secret is rejected. The format is {@code base64url(iv | ciphertext | tag)}, and the plaintext is
+ * {@code expiry (8 bytes) | nonce (4 bytes, -1 for none) | state (UTF-8)}.
+ */
+public class AuthStateCodec {
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int TAG_BITS = 128;
+
+    private final SecretKey _key;
+
+    private final SecureRandom _random = new SecureRandom();
+
+    /**
+     * Constructor
+     *
+     * @param secret The secret shared by all the nodes
+     */
+    public AuthStateCodec(byte[] secret) {
+        try {
+            // Derive a 256-bit key from the secret of any length
+            var key = MessageDigest.getInstance("SHA-256").digest(secret);
+            this._key = new SecretKeySpec(key, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Encrypt the value
+     *
+     * @param value The value
+     * @return The encrypted value
+     */
+    public String encode(AuthState value) {
+        var state = value.state().getBytes(StandardCharsets.UTF_8);
+        var plain = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + state.length)
+                .putLong(value.expiresAt())
+                .putInt(value.nonce() != null ? value.nonce() : -1)
+                .put(state)
+                .array();
+        try {
+            var iv = new byte[IV_LENGTH];
+            _random.nextBytes(iv);
+            var cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, _key, new GCMParameterSpec(TAG_BITS, iv));
+            var out = new byte[IV_LENGTH + cipher.getOutputSize(plain.length)];
+            System.arraycopy(iv, 0, out, 0, IV_LENGTH);
+            cipher.doFinal(plain, 0, plain.length, out, IV_LENGTH);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(out);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decrypt the value
+     *
+     * @param encoded The encrypted value
+     * @return The value, or null if the value is malformed or was not encrypted with this secret
+     */
+    public AuthState decode(String encoded) {
+        try {
+            var in = Base64.getUrlDecoder().decode(encoded);
+            if (in.length <= IV_LENGTH) {
+                return null;
+            }
+            var cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, _key, new GCMParameterSpec(TAG_BITS, in, 0, IV_LENGTH));
+            var plain = ByteBuffer.wrap(cipher.doFinal(in, IV_LENGTH, in.length - IV_LENGTH));
+            var expiresAt = plain.getLong();
+            var nonce = plain.getInt();
+            var state = StandardCharsets.UTF_8.decode(plain).toString();
+            return new AuthState(state, nonce != -1 ? nonce : null, expiresAt);
+        } catch (GeneralSecurityException | IllegalArgumentException | BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The state, the nonce and the expiry carried by the cookie
+     *
+     * @param state     The state
+     * @param nonce     The nonce, or null for the sign-out
+     * @param expiresAt The epoch milliseconds when the value expires
+     */
+    public record AuthState(String state, Integer nonce, long expiresAt) {
+    }
+}
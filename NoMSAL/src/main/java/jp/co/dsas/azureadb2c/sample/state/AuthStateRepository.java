@@ -0,0 +1,56 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.state;
+
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+
+/**
+ * The repository of the state and the nonce between the redirect to Azure AD B2C and its callback
+ */
+public interface AuthStateRepository {
+
+    /**
+     * Save the state and the nonce for the later verification
+     *
+     * @param state The state sent to Azure AD B2C
+     * @param nonce The nonce sent to Azure AD B2C, or null for the sign-out
+     * @throws SampleException The exception class when too many sign-ins are in progress
+     */
+    void save(String state, Integer nonce) throws SampleException;
+
+    /**
+     * Verify the state returned by Azure AD B2C and get the nonce saved with it.
+     * A state can be consumed only once.
+     *
+     * @param state The state returned by Azure AD B2C
+     * @return The nonce saved with the state, or null for the sign-out
+     * @throws SampleException The exception class for the invalid state
+     */
+    Integer consume(String state) throws SampleException;
+
+    /**
+     * Discard everything saved for the user
+     */
+    void invalidate();
+}
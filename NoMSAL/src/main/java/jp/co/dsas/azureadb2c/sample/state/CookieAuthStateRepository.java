@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.state;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.WebUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+
+/**
+ * The repository that carries the state and the nonce in a short-lived encrypted cookie.
+ * <p>
+ * No server session is created for the sign-in, so any node that shares the secret can handle
+ * the callback. The cookie is removed when it is consumed, and a consumed state is recorded in
+ * the pending authorization store, so it is rejected on this node until it would have expired.
+ * The consumed states do not count toward the limit of the sign-ins in progress, but have a limit
+ * of their own, and a callback is rejected when it is reached.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.application.auth_state.mode", havingValue = "cookie")
+public class CookieAuthStateRepository implements AuthStateRepository {
+
+    private static final Logger _logger = LoggerFactory.getLogger(CookieAuthStateRepository.class);
+
+    /**
+     * The name of the cookie
+     */
+    static final String COOKIE_NAME = "b2c_auth_state";
+
+    private final WebAppConfig _webAppConfig;
+
+    private final HttpServletRequest _request;
+
+    private final HttpServletResponse _response;
+
+    private final AuthStateCodec _codec;
+
+    /**
+     * The store that records the consumed states
+     */
+    private final PendingAuthorizationStore _pendingStore;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     * @param request      The request
+     * @param response     The response
+     * @param pendingStore The store that records the consumed states
+     * @throws IllegalStateException The exception class when no secret is set and the random secret is not allowed
+     */
+    public CookieAuthStateRepository(WebAppConfig webAppConfig, HttpServletRequest request, HttpServletResponse response,
+                                     PendingAuthorizationStore pendingStore) {
+        this._webAppConfig = webAppConfig;
+        this._request = request;
+        this._response = response;
+        this._pendingStore = pendingStore;
+        var secret = webAppConfig.getAuthStateSecret();
+        if (secret == null || secret.isEmpty()) {
+            // The callback can reach another node, which could not verify a cookie encrypted with a random secret
+            if (!webAppConfig.isAuthStateRandomSecret()) {
+                throw new IllegalStateException("spring.application.auth_state.secret must be set in the cookie mode.");
+            }
+            _logger.warn("spring.application.auth_state.secret is not set, so only this node can verify the state cookie.");
+            var random = new byte[32];
+            new SecureRandom().nextBytes(random);
+            this._codec = new AuthStateCodec(random);
+        } else {
+            this._codec = new AuthStateCodec(secret.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public void save(String state, Integer nonce) {
+        var maxAge = _webAppConfig.getAuthStateMaxAge();
+        var value = new AuthStateCodec.AuthState(state, nonce, System.currentTimeMillis() + maxAge.toMillis());
+        _setCookie(_codec.encode(value), maxAge);
+    }
+
+    @Override
+    public Integer consume(String state) throws SampleException {
+        var cookie = WebUtils.getCookie(_request, COOKIE_NAME);
+        var value = cookie != null ? _codec.decode(cookie.getValue()) : null;
+        // The state cookie is used only once
+        _setCookie("", Duration.ZERO);
+
+        var now = System.currentTimeMillis();
+        if (state == null || value == null || !state.equals(value.state()) || value.expiresAt() < now) {
+            throw new SampleException(SampleException.Reason.BAD_STATE, "The state is invalid.");
+        }
+        if (!_pendingStore.markConsumed(state, value.expiresAt())) {
+            throw new SampleException(SampleException.Reason.BAD_STATE, "The state is already used or expired.");
+        }
+        return value.nonce();
+    }
+
+    @Override
+    public void invalidate() {
+        _setCookie("", Duration.ZERO);
+    }
+
+    /**
+     * Set the state cookie on the response
+     *
+     * @param value  The value of the cookie
+     * @param maxAge The lifetime of the cookie
+     */
+    private void _setCookie(String value, Duration maxAge) {
+        var cookie = ResponseCookie.from(COOKIE_NAME, value)
+                .path("/")
+                .httpOnly(true)
+                .secure(_request.isSecure())
+                // The callback from Azure AD B2C is a top-level GET navigation, which Lax allows
+                .sameSite("Lax")
+                .maxAge(maxAge)
+                .build();
+        _response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.state;
+
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bounded store of the sign-ins and sign-outs waiting for the callback from Azure AD B2C.
+ * <p>
+ * An entry is removed atomically when it is consumed, so a state can be used only once.
+ * The entries are held in a {@link ConcurrentHashMap}, whose bins are locked separately, and
+ * the number of the entries is capped. The expired entries are swept by a timing wheel with
+ * one-second slots, so the sweep only visits the entries that expire in the elapsed seconds.
+ * The states consumed from a state cookie are remembered in a separate set until they expire,
+ * so they are rejected when replayed without counting toward the sign-ins in progress. The set has
+ * its own cap, and a callback is rejected when the set is full, because a state that is not
+ * remembered could be replayed.
+ */
+@Component
+public class PendingAuthorizationStore {
+
+    /**
+     * The length of one slot of the timing wheel in milliseconds
+     */
+    private static final long TICK_MILLIS = 1000L;
+
+    private final WebAppConfig _webAppConfig;
+
+    private final ConcurrentHashMap<String, Entry> _entries;
+
+    private final AtomicInteger _size = new AtomicInteger();
+
+    /**
+     * The epoch milliseconds until which the consumed state is rejected
+     */
+    private final ConcurrentHashMap<String, Long> _consumed = new ConcurrentHashMap<>();
+
+    private final AtomicInteger _consumedSize = new AtomicInteger();
+
+    /**
+     * The slots of the timing wheel holding the states that expire in the slot
+     */
+    private final List<ConcurrentLinkedQueue<String>> _wheel;
+
+    /**
+     * The last slot swept, in ticks since the epoch
+     */
+    private long _sweptTick;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     */
+    public PendingAuthorizationStore(WebAppConfig webAppConfig) {
+        this._webAppConfig = webAppConfig;
+        this._entries = new ConcurrentHashMap<>(Math.min(webAppConfig.getAuthStateMaxPending(), 1 << 16));
+        // The wheel covers the whole lifetime of an entry, so a slot is never reused before it is swept
+        var slots = (int) (webAppConfig.getAuthStateMaxAge().toMillis() / TICK_MILLIS) + 2;
+        var wheel = new ArrayList<ConcurrentLinkedQueue<String>>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        this._wheel = List.copyOf(wheel);
+        this._sweptTick = System.currentTimeMillis() / TICK_MILLIS;
+    }
+
+    /**
+     * Register the state for the later callback
+     *
+     * @param state The state sent to Azure AD B2C
+     * @param nonce The nonce sent to Azure AD B2C, or null
+     * @return false if the state is already registered
+     * @throws SampleException The exception class when too many sign-ins are in progress
+     */
+    public boolean register(String state, Integer nonce) throws SampleException {
+        if (_size.incrementAndGet() > _webAppConfig.getAuthStateMaxPending()) {
+            _size.decrementAndGet();
+            throw new SampleException(SampleException.Reason.TOO_MANY_PENDING, "Too many sign-ins are in progress.");
+        }
+        var expiresAt = System.currentTimeMillis() + _webAppConfig.getAuthStateMaxAge().toMillis();
+        if (_entries.putIfAbsent(state, new Entry(nonce, expiresAt)) != null) {
+            _size.decrementAndGet();
+            return false;
+        }
+        _slot(expiresAt).add(state);
+        return true;
+    }
+
+    /**
+     * Remember the state consumed from a state cookie, so it cannot be used again
+     *
+     * @param state     The state returned by Azure AD B2C
+     * @param expiresAt The epoch milliseconds when the state would have expired
+     * @return false if the state is already consumed
+     * @throws SampleException The exception class when too many consumed states are remembered
+     */
+    public boolean markConsumed(String state, long expiresAt) throws SampleException {
+        if (_consumedSize.incrementAndGet() > _webAppConfig.getAuthStateMaxConsumed()) {
+            _consumedSize.decrementAndGet();
+            throw new SampleException(SampleException.Reason.TOO_MANY_PENDING, "Too many sign-ins were completed recently.");
+        }
+        if (_consumed.putIfAbsent(state, expiresAt) != null) {
+            _consumedSize.decrementAndGet();
+            return false;
+        }
+        _slot(expiresAt).add(state);
+        return true;
+    }
+
+    /**
+     * Validate and remove the state in one step
+     *
+     * @param state The state returned by Azure AD B2C
+     * @return The entry, or null if the state is unknown, already consumed or expired
+     */
+    public Entry consume(String state) {
+        if (state == null) {
+            return null;
+        }
+        var entry = _entries.remove(state);
+        if (entry == null) {
+            return null;
+        }
+        _size.decrementAndGet();
+        return entry.expiresAt() < System.currentTimeMillis() ? null : entry;
+    }
+
+    /**
+     * Remove the entries in the slots that have expired since the last sweep
+     */
+    @Scheduled(fixedDelay = TICK_MILLIS)
+    public synchronized void sweep() {
+        var now = System.currentTimeMillis();
+        var nowTick = now / TICK_MILLIS;
+        // Visit at most one turn of the wheel even if the sweep was delayed
+        var fromTick = Math.max(_sweptTick, nowTick - _wheel.size() + 1);
+        for (long tick = fromTick; tick < nowTick; tick++) {
+            var slot = _wheel.get((int) (tick % _wheel.size()));
+            List<String> notExpired = null;
+            String state;
+            while ((state = slot.poll()) != null) {
+                var consumedUntil = _consumed.get(state);
+                if (consumedUntil != null) {
+                    if (consumedUntil > now) {
+                        if (notExpired == null) {
+                            notExpired = new ArrayList<>();
+                        }
+                        notExpired.add(state);
+                    } else if (_consumed.remove(state, consumedUntil)) {
+                        _consumedSize.decrementAndGet();
+                    }
+                    continue;
+                }
+                var entry = _entries.get(state);
+                if (entry == null) {
+                    // Already consumed
+                    continue;
+                }
+                if (entry.expiresAt() > now) {
+                    // Registered for the next turn of the wheel while the sweep was delayed
+                    if (notExpired == null) {
+                        notExpired = new ArrayList<>();
+                    }
+                    notExpired.add(state);
+                } else if (_entries.remove(state, entry)) {
+                    _size.decrementAndGet();
+                }
+            }
+            if (notExpired != null) {
+                slot.addAll(notExpired);
+            }
+        }
+        _sweptTick = nowTick;
+    }
+
+    /**
+     * Get the number of the pending entries
+     *
+     * @return The number of the entries
+     */
+    public int size() {
+        return _size.get();
+    }
+
+    /**
+     * Get the number of the consumed states remembered until they expire
+     *
+     * @return The number of the states
+     */
+    public int consumedSize() {
+        return _consumedSize.get();
+    }
+
+    /**
+     * Get the slot of the timing wheel for the expiry
+     *
+     * @param expiresAt The epoch milliseconds
+     * @return The slot
+     */
+    private ConcurrentLinkedQueue<String> _slot(long expiresAt) {
+        return _wheel.get((int) ((expiresAt / TICK_MILLIS) % _wheel.size()));
+    }
+
+    /**
+     * The nonce and the expiry of a pending entry
+     *
+     * @param nonce     The nonce, or null
+     * @param expiresAt The epoch milliseconds when the entry expires
+     */
+    public record Entry(Integer nonce, long expiresAt) {
+    }
+}
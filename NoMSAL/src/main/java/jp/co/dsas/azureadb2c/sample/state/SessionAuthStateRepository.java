@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.state;
+
+import jakarta.servlet.http.HttpSession;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * The repository that keeps the state and the nonce in the HTTP session.
+ * The state is also registered in the pending authorization store, so it can be consumed only once.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.application.auth_state.mode", havingValue = "session", matchIfMissing = true)
+public class SessionAuthStateRepository implements AuthStateRepository {
+
+    /**
+     * The attribute holding the session timeout in seconds from before the sign-in started
+     */
+    private static final String SAVED_INTERVAL_ATTRIBUTE = "maxInactiveInterval";
+
+    private final WebAppConfig _webAppConfig;
+
+    private final HttpSession _session;
+
+    private final PendingAuthorizationStore _pendingStore;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     * @param session      The session
+     * @param pendingStore The store of the pending sign-ins
+     */
+    public SessionAuthStateRepository(WebAppConfig webAppConfig, HttpSession session, PendingAuthorizationStore pendingStore) {
+        this._webAppConfig = webAppConfig;
+        this._session = session;
+        this._pendingStore = pendingStore;
+    }
+
+    @Override
+    public void save(String state, Integer nonce) throws SampleException {
+        _pendingStore.register(state, nonce);
+        // A session of an abandoned sign-in expires with its state, and gets its own timeout back on the callback
+        if (_session.getAttribute(SAVED_INTERVAL_ATTRIBUTE) == null) {
+            _session.setAttribute(SAVED_INTERVAL_ATTRIBUTE, _session.getMaxInactiveInterval());
+        }
+        _session.setMaxInactiveInterval((int) _webAppConfig.getAuthStateMaxAge().toSeconds());
+        _session.setAttribute("state", state);
+        if (nonce != null) {
+            _session.setAttribute("nonce", nonce);
+        }
+    }
+
+    @Override
+    public Integer consume(String state) throws SampleException {
+        // The callback arrived, so the session is kept as long as the container keeps any session
+        var savedInterval = (Integer) _session.getAttribute(SAVED_INTERVAL_ATTRIBUTE);
+        if (savedInterval != null) {
+            _session.setMaxInactiveInterval(savedInterval);
+            _session.removeAttribute(SAVED_INTERVAL_ATTRIBUTE);
+        }
+
+        // Get the state from the session
+        String check_state = (String) _session.getAttribute("state");
+        // validate the state, then if state from the request is not equal to the state from the session, forward to an error page
+        if (state == null || !state.equals(check_state)) {
+            throw new SampleException(SampleException.Reason.BAD_STATE, "The state is invalid.");
+        }
+        // The state is removed from the store, so a replayed callback is rejected
+        var entry = _pendingStore.consume(state);
+        if (entry == null) {
+            throw new SampleException(SampleException.Reason.BAD_STATE, "The state is already used or expired.");
+        }
+        return entry.nonce();
+    }
+
+    @Override
+    public void invalidate() {
+        _session.invalidate();
+    }
+}
@@ -0,0 +1,125 @@
+package jp.co.dsas.azureadb2c.sample.audit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.controller.UserInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuditLogTests {
+
+	private static final int THREADS = 4;
+
+	private static final int RECORDS_PER_THREAD = 5000;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void fullRingRejectsTheClaimUntilTheConsumerCatchesUp() {
+		var ring = new AuditRingBuffer(3);
+		assertEquals(4, ring.capacity());
+
+		for (int i = 0; i < ring.capacity(); i++) {
+			var sequence = ring.tryClaim();
+			ring.get(sequence).outcome = "record-" + i;
+			ring.publish(sequence);
+		}
+		assertEquals(-1, ring.tryClaim());
+
+		var read = new ArrayList<String>();
+		assertEquals(2, ring.drain(record -> read.add(record.outcome), 2));
+		assertEquals(List.of("record-0", "record-1"), read);
+		assertTrue(ring.tryClaim() >= 0);
+	}
+
+	@Test
+	void recordsFromManyThreadsAreAllWrittenAcrossTheRolledFiles() throws Exception {
+		var webAppConfig = new WebAppConfig();
+		webAppConfig.setAuditDir(dir.toString());
+		// Small files and a small ring, so the files roll and the producers wait for the writer
+		webAppConfig.setAuditFileSize(DataSize.ofKilobytes(64));
+		webAppConfig.setAuditBufferSize(64);
+		webAppConfig.setAuditOverflowTimeout(Duration.ofSeconds(5));
+		var meterRegistry = new SimpleMeterRegistry();
+		var auditLog = new AuditLog(webAppConfig, meterRegistry);
+		auditLog.start();
+
+		var token = new TokenInfo();
+		token.setExpiresIn(3600);
+		token.setNotBefore(1_700_000_000L);
+		var start = new CountDownLatch(1);
+		var threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			var thread = t;
+			threads.add(Thread.ofPlatform().start(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+					var user = new UserInfo();
+					user.setSub(thread + "-" + i);
+					user.setIdp("local");
+					auditLog.signedIn("default", user, token);
+				}
+			}));
+		}
+		start.countDown();
+		for (var thread : threads) {
+			thread.join();
+		}
+		auditLog.stop();
+
+		assertEquals(0, meterRegistry.counter("b2c.audit.records", "result", "dropped").count());
+		var objectMapper = new ObjectMapper();
+		var subs = new HashSet<String>();
+		try (var files = Files.list(dir)) {
+			for (var file : files.sorted().toList()) {
+				for (var line : Files.readAllLines(file)) {
+					var record = objectMapper.readTree(line);
+					assertEquals("sign_in", record.get("action").asText());
+					assertEquals("2023-11-14T22:13:20Z", record.get("token_nbf").asText());
+					subs.add(record.get("sub").asText());
+				}
+			}
+		}
+		assertEquals(THREADS * RECORDS_PER_THREAD, subs.size());
+		try (var files = Files.list(dir)) {
+			assertTrue(files.count() > 1);
+		}
+	}
+
+	@Test
+	void newDirectoryAndFilesAreReadableOnlyByTheUser() throws Exception {
+		var webAppConfig = new WebAppConfig();
+		var auditDir = dir.resolve("audit");
+		webAppConfig.setAuditDir(auditDir.toString());
+		var auditLog = new AuditLog(webAppConfig, new SimpleMeterRegistry());
+		auditLog.start();
+		auditLog.failed(AuditLog.Action.SIGN_IN, "default", "bad_state");
+		auditLog.stop();
+
+		assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(auditDir));
+		try (var files = Files.list(auditDir)) {
+			var file = files.findFirst().orElseThrow();
+			assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+		}
+	}
+}
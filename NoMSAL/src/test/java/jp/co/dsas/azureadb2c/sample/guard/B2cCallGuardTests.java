@@ -0,0 +1,104 @@
+package jp.co.dsas.azureadb2c.sample.guard;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class B2cCallGuardTests {
+
+	private static final long SLOW_MILLIS = 1500;
+
+	private HttpServer server;
+
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final RestTemplate restTemplate = new RestTemplate();
+
+	private String url;
+
+	@BeforeEach
+	void startStub() throws Exception {
+		// The first request is slow, like a tail-latency spike of the keys endpoint
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/keys", exchange -> {
+			if (requests.getAndIncrement() == 0) {
+				try {
+					Thread.sleep(SLOW_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			var body = "{\"keys\":[]}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		// Serve the hedged request while the first one is still sleeping
+		server.setExecutor(serverExecutor);
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/keys";
+	}
+
+	@AfterEach
+	void stopStub() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	void slowGetIsHedged() throws Exception {
+		var registry = new SimpleMeterRegistry();
+		var guard = new B2cCallGuard(config(1.0), registry);
+
+		var start = System.nanoTime();
+		var body = guard.executeIdempotent(() -> restTemplate.getForObject(url, String.class));
+		var elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+		assertEquals("{\"keys\":[]}", body);
+		assertTrue(elapsedMillis < SLOW_MILLIS, "The hedged request should answer first: " + elapsedMillis + "ms");
+		assertEquals(1.0, registry.counter("b2c.guard.hedges").count());
+		guard.stop();
+	}
+
+	@Test
+	void hedgeIsNotSentWithoutBudget() throws Exception {
+		var registry = new SimpleMeterRegistry();
+		var guard = new B2cCallGuard(config(0.0), registry);
+
+		var start = System.nanoTime();
+		guard.executeIdempotent(() -> restTemplate.getForObject(url, String.class));
+		var elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+		assertTrue(elapsedMillis >= SLOW_MILLIS, "Only the slow request should be sent: " + elapsedMillis + "ms");
+		assertEquals(1, requests.get());
+		assertEquals(0.0, registry.counter("b2c.guard.hedges").count());
+		assertEquals(1.0, registry.counter("b2c.guard.retry_budget.exhausted").count());
+		guard.stop();
+	}
+
+	private static WebAppConfig config(double retryBudgetRatio) {
+		var config = new WebAppConfig();
+		config.setB2cGuardHedgeEnabled(true);
+		// Until enough latencies are recorded the latency threshold is the hedge delay
+		config.setB2cGuardLatencyThreshold(Duration.ofMillis(200));
+		config.setB2cGuardRetryBudgetRatio(retryBudgetRatio);
+		config.setB2cGuardRetryBudgetMinPerSecond(0.0);
+		return config;
+	}
+}
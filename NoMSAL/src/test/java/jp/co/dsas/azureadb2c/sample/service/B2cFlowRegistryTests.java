@@ -0,0 +1,82 @@
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.auth0.jwt.JWT;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlowProperties;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.guard.B2cCallGuard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class B2cFlowRegistryTests {
+
+	private B2cCallGuard guard;
+
+	private B2cFlowRegistry registry;
+
+	@BeforeEach
+	void createRegistry() {
+		// Two tenants serve a user flow of the same name
+		var config = new WebAppConfig();
+		var properties = new B2cFlowProperties();
+		properties.getFlows().put("contoso", flow("contoso", "11111111-1111-1111-1111-111111111111"));
+		properties.getFlows().put("fabrikam", flow("fabrikam", "22222222-2222-2222-2222-222222222222"));
+		var meterRegistry = new SimpleMeterRegistry();
+		guard = new B2cCallGuard(config, meterRegistry);
+		registry = new B2cFlowRegistry(config, properties, new RestTemplate(), guard, new ObjectMapper(), meterRegistry);
+	}
+
+	@AfterEach
+	void stopRegistry() {
+		registry.stop();
+		guard.stop();
+	}
+
+	@Test
+	void sameUserFlowOfTwoTenantsIsSelectedByTheIssuer() {
+		var contoso = token("{\"iss\":\"https://contoso.b2clogin.com/11111111-1111-1111-1111-111111111111/v2.0/\",\"tfp\":\"B2C_1_SignUpSignIn\"}");
+		var fabrikam = token("{\"iss\":\"https://fabrikam.b2clogin.com/22222222-2222-2222-2222-222222222222/v2.0/\",\"acr\":\"b2c_1_signupsignin\"}");
+
+		assertEquals("contoso", registry.forToken(JWT.decode(contoso)).flow().getName());
+		assertEquals("fabrikam", registry.forToken(JWT.decode(fabrikam)).flow().getName());
+	}
+
+	@Test
+	void tidClaimSelectsTheTenant() {
+		var token = token("{\"tid\":\"22222222-2222-2222-2222-222222222222\",\"tfp\":\"B2C_1_signupsignin\"}");
+
+		assertEquals("fabrikam", registry.forToken(JWT.decode(token)).flow().getName());
+	}
+
+	@Test
+	void unknownTenantIsNotSelected() {
+		var token = token("{\"iss\":\"https://other.b2clogin.com/33333333-3333-3333-3333-333333333333/v2.0/\",\"tfp\":\"B2C_1_signupsignin\"}");
+
+		assertNull(registry.forToken(JWT.decode(token)));
+	}
+
+	private static B2cFlowProperties.Flow flow(String tenant, String tenantId) {
+		var flow = new B2cFlowProperties.Flow();
+		flow.setTenant(tenant);
+		flow.setTenantId(tenantId);
+		flow.setClientId(tenant + "-client");
+		flow.setUserFlow("B2C_1_signupsignin");
+		flow.setAuthorityHost("http://127.0.0.1:1");
+		return flow;
+	}
+
+	private static String token(String payload) {
+		var encoder = Base64.getUrlEncoder().withoutPadding();
+		return encoder.encodeToString("{\"alg\":\"RS256\",\"kid\":\"k1\"}".getBytes(StandardCharsets.UTF_8)) + "."
+				+ encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".c2ln";
+	}
+}
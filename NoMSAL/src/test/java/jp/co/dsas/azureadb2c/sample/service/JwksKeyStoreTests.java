@@ -0,0 +1,261 @@
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.auth0.jwk.NetworkException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlow;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.guard.B2cCallGuard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwksKeyStoreTests {
+
+	private static final long SLOW_MILLIS = 300;
+
+	private HttpServer server;
+
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+
+	private final ExecutorService callers = Executors.newCachedThreadPool();
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final AtomicReference<String> body = new AtomicReference<>();
+
+	private volatile boolean slow;
+
+	private RSAPublicKey publicKey;
+
+	private B2cCallGuard guard;
+
+	private String host;
+
+	@TempDir
+	Path snapshotDir;
+
+	@BeforeEach
+	void startStub() throws Exception {
+		var generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		publicKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+		body.set(keysJson("k1", publicKey));
+
+		// The keys endpoint of every user flow, answering with the current body
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			requests.incrementAndGet();
+			if (slow) {
+				try {
+					Thread.sleep(SLOW_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			var bytes = body.get().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, bytes.length);
+			exchange.getResponseBody().write(bytes);
+			exchange.close();
+		});
+		server.setExecutor(serverExecutor);
+		server.start();
+		host = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@AfterEach
+	void stopStub() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+		callers.shutdownNow();
+		if (guard != null) {
+			guard.stop();
+		}
+	}
+
+	@Test
+	void tokenWithoutKidIsRejectedWithoutFetch() {
+		var keyStore = keyStore(new WebAppConfig());
+
+		assertThrows(SigningKeyNotFoundException.class, () -> keyStore.getKey(null));
+		assertFalse(keyStore.hasKey(null));
+		assertEquals(0, requests.get());
+		keyStore.stop();
+	}
+
+	@Test
+	void concurrentLookupsOfUnknownKidsShareOneFetch() throws Exception {
+		var keyStore = keyStore(new WebAppConfig());
+		slow = true;
+
+		// The known kid and forged kids arrive together while the keys are not loaded yet
+		var start = new CountDownLatch(1);
+		var results = new ArrayList<Future<RSAPublicKey>>();
+		for (int i = 0; i < 8; i++) {
+			var kid = i % 2 == 0 ? "k1" : "forged-" + i;
+			results.add(callers.submit(() -> {
+				start.await();
+				return keyStore.getKey(kid);
+			}));
+		}
+		start.countDown();
+
+		int found = 0;
+		int missing = 0;
+		for (var result : results) {
+			try {
+				assertEquals(publicKey, result.get());
+				found++;
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof SigningKeyNotFoundException, e.getCause().toString());
+				missing++;
+			}
+		}
+		assertEquals(4, found);
+		assertEquals(4, missing);
+		assertEquals(1, requests.get());
+		keyStore.stop();
+	}
+
+	@Test
+	void missingKidIsRememberedForTheNegativeTtl() throws Exception {
+		var config = new WebAppConfig();
+		config.setJwksMinRefreshInterval(Duration.ZERO);
+		var keyStore = keyStore(config);
+
+		assertThrows(SigningKeyNotFoundException.class, () -> keyStore.getKey("unknown"));
+		assertThrows(SigningKeyNotFoundException.class, () -> keyStore.getKey("unknown"));
+		assertEquals(1, requests.get());
+
+		// Another unknown kid is still looked up, so a rotated key is not locked out
+		assertThrows(SigningKeyNotFoundException.class, () -> keyStore.getKey("rotated"));
+		assertEquals(2, requests.get());
+		keyStore.stop();
+	}
+
+	@Test
+	void responseWithoutKeysKeepsTheCachedKeys() throws Exception {
+		var config = new WebAppConfig();
+		config.setJwksTtl(Duration.ZERO);
+		config.setJwksStaleWhileRevalidate(Duration.ZERO);
+		config.setJwksMinRefreshInterval(Duration.ZERO);
+		var keyStore = keyStore(config);
+		var key = keyStore.getKey("k1");
+
+		body.set("{\"keys\":[]}");
+		Thread.sleep(5);
+		assertThrows(NetworkException.class, keyStore::refresh);
+		// The expired key is still served, because the broken response did not replace it
+		assertSame(key, keyStore.getKey("k1"));
+		assertTrue(keyStore.hasKey("k1"));
+		assertEquals(3, requests.get());
+		keyStore.stop();
+	}
+
+	@Test
+	void snapshotIsNotServedWhileTheKeysCanBeFetched() throws Exception {
+		var config = snapshotConfig();
+		body.set(keysJson("k2", publicKey));
+		var keyStore = keyStore(config);
+
+		// The saved key is gone from the user flow, so it must not be accepted
+		assertThrows(SigningKeyNotFoundException.class, () -> keyStore.getKey("k1"));
+		assertEquals(1, requests.get());
+		keyStore.stop();
+	}
+
+	@Test
+	void snapshotIsServedWhenTheFirstFetchFails() throws Exception {
+		var config = snapshotConfig();
+		var keyStore = keyStore(config);
+		server.stop(0);
+
+		assertEquals(publicKey, keyStore.getKey("k1"));
+		assertFalse(keyStore.hasKey("k1"));
+		keyStore.stop();
+	}
+
+	@Test
+	void snapshotWritableByOthersIsNotLoaded() throws Exception {
+		var config = snapshotConfig();
+		Files.setPosixFilePermissions(snapshotDir, PosixFilePermissions.fromString("rwxrwxrwx"));
+		var keyStore = keyStore(config);
+		server.stop(0);
+
+		assertThrows(NetworkException.class, () -> keyStore.getKey("k1"));
+		keyStore.stop();
+	}
+
+	@Test
+	void keysAreStillFetchedAfterStop() throws Exception {
+		var config = new WebAppConfig();
+		config.setJwksTtl(Duration.ZERO);
+		config.setJwksMinRefreshInterval(Duration.ZERO);
+		var keyStore = keyStore(config);
+		keyStore.stop();
+
+		// The snapshot and the background refresh are skipped, but the lookups are served
+		assertEquals(publicKey, keyStore.getKey("k1"));
+		Thread.sleep(5);
+		assertEquals(publicKey, keyStore.getKey("k1"));
+		assertEquals(publicKey, keyStore.refresh().keys().get("k1"));
+	}
+
+	private WebAppConfig snapshotConfig() throws Exception {
+		var config = new WebAppConfig();
+		config.setJwksSnapshotDir(snapshotDir.toString());
+		Files.writeString(snapshotDir.resolve("tenant-B2C_1_test.json"), "{\"fetchedAt\":" + System.currentTimeMillis()
+				+ "," + keysJson("k1", publicKey).substring(1));
+		return config;
+	}
+
+	private JwksKeyStore keyStore(WebAppConfig config) {
+		var registry = new SimpleMeterRegistry();
+		guard = new B2cCallGuard(config, registry);
+		var flow = new B2cFlow("default", "tenant", "tenant-id", "client-id", "secret", "B2C_1_test", "openid", host);
+		return new JwksKeyStore(flow, config, new RestTemplate(), guard, new ObjectMapper(), registry);
+	}
+
+	private static String keysJson(String kid, RSAPublicKey key) {
+		var encoder = Base64.getUrlEncoder().withoutPadding();
+		return "{\"keys\":[{\"kty\":\"RSA\",\"use\":\"sig\",\"kid\":\"" + kid + "\",\"n\":\""
+				+ encoder.encodeToString(unsigned(key.getModulus())) + "\",\"e\":\""
+				+ encoder.encodeToString(unsigned(key.getPublicExponent())) + "\"}]}";
+	}
+
+	private static byte[] unsigned(BigInteger value) {
+		var bytes = value.toByteArray();
+		return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+	}
+}
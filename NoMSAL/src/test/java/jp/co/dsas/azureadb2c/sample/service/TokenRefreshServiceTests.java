@@ -0,0 +1,183 @@
+package jp.co.dsas.azureadb2c.sample.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlowProperties;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.guard.B2cCallGuard;
+import jp.co.dsas.azureadb2c.sample.session.HeapSessionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.session.MapSession;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenRefreshServiceTests {
+
+	private HttpServer server;
+
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+
+	private final AtomicInteger status = new AtomicInteger(200);
+
+	private B2cCallGuard guard;
+
+	private B2cFlowRegistry flowRegistry;
+
+	private WebAppConfig config;
+
+	private B2cTokenClient tokenClient;
+
+	private HeapSessionRepository repository;
+
+	private TokenRefreshService service;
+
+	private String sessionId;
+
+	@BeforeEach
+	void startService() throws Exception {
+		// The token endpoint of the user flow, answering with the current status
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			var body = (status.get() == 200
+					? "{\"access_token\":\"refreshed\",\"refresh_token\":\"r2\",\"expires_in\":3600,"
+					+ "\"refresh_token_expires_in\":86400,\"not_before\":" + System.currentTimeMillis() / 1000 + "}"
+					: "{\"error\":\"invalid_grant\"}").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(status.get(), body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.setExecutor(serverExecutor);
+		server.start();
+
+		config = new WebAppConfig();
+		config.setAuthorityHost("http://127.0.0.1:" + server.getAddress().getPort());
+		var meterRegistry = new SimpleMeterRegistry();
+		var objectMapper = new ObjectMapper();
+		guard = new B2cCallGuard(config, meterRegistry);
+		flowRegistry = new B2cFlowRegistry(config, new B2cFlowProperties(), new RestTemplate(), guard, objectMapper,
+				meterRegistry);
+		repository = new HeapSessionRepository(Duration.ofMinutes(30));
+
+		// A signed-in session, scheduled when the service starts
+		var token = new TokenInfo();
+		token.setAccessToken("initial");
+		token.setRefreshToken("r1");
+		token.setExpiresIn(3600);
+		token.setRefreshTokenExpiresIn(86400);
+		token.setNotBefore(System.currentTimeMillis() / 1000);
+		var session = repository.createSession();
+		session.setAttribute(SessionTokens.ATTRIBUTE, new SessionTokens(B2cFlowRegistry.DEFAULT_FLOW_NAME, token, 1));
+		repository.save(session);
+		sessionId = session.getId();
+
+		tokenClient = new B2cTokenClient(new RestTemplate(), guard, objectMapper);
+		service = new TokenRefreshService(config, tokenClient, flowRegistry, repository);
+		service.start();
+	}
+
+	@AfterEach
+	void stopService() {
+		service.stop();
+		flowRegistry.stop();
+		guard.stop();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	void refreshedTokensAreSavedToTheSession() {
+		assertEquals(1, service.size());
+
+		assertEquals("refreshed", service.refreshAsync(sessionId).join().getAccessToken());
+		assertEquals("r2", tokens().token().getRefreshToken());
+		assertEquals(1, service.size());
+	}
+
+	@Test
+	void olderCopyOfTheSessionDoesNotRestoreTheOldTokens() {
+		// A request read the session before the refresh and saves it after
+		var requestCopy = repository.findById(sessionId);
+		service.refreshAsync(sessionId).join();
+		requestCopy.setAttribute("visited", true);
+		repository.save(requestCopy);
+
+		var session = repository.findById(sessionId);
+		assertEquals("refreshed", ((SessionTokens) session.getAttribute(SessionTokens.ATTRIBUTE)).token().getAccessToken());
+		assertEquals(true, session.getAttribute("visited"));
+	}
+
+	@Test
+	void rejectedRefreshTokenIsDropped() {
+		status.set(400);
+
+		var e = assertThrows(CompletionException.class, () -> service.refreshAsync(sessionId).join());
+		assertTrue(e.getCause() instanceof HttpClientErrorException, e.getCause().toString());
+		assertNull(tokens());
+		assertEquals(0, service.size());
+	}
+
+	@Test
+	void serverErrorKeepsTheTokensForTheRetry() {
+		status.set(503);
+
+		var e = assertThrows(CompletionException.class, () -> service.refreshAsync(sessionId).join());
+		assertTrue(e.getCause() instanceof HttpServerErrorException, e.getCause().toString());
+		assertEquals("r1", tokens().token().getRefreshToken());
+		assertEquals(1, service.size());
+	}
+
+	@Test
+	void refreshAfterStopFailsInsteadOfWaiting() throws Exception {
+		service.stop();
+
+		var future = service.refreshAsync(sessionId);
+		var e = assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof RejectedExecutionException, String.valueOf(e.getCause()));
+	}
+
+	@Test
+	void tokensThatDoNotFitFailTheSignIn() {
+		var full = new HeapSessionRepository(Duration.ofMinutes(30)) {
+			@Override
+			public boolean fits(MapSession session) {
+				return false;
+			}
+		};
+		var small = new TokenRefreshService(config, tokenClient, flowRegistry, full);
+		var session = new MockHttpSession();
+
+		var e = assertThrows(SampleException.class, () -> small.register(session,
+				flowRegistry.get(B2cFlowRegistry.DEFAULT_FLOW_NAME), new TokenInfo()));
+		assertEquals(SampleException.Reason.SESSION_TOO_LARGE, e.getReason());
+		assertNull(session.getAttribute(SessionTokens.ATTRIBUTE));
+		assertEquals(0, small.size());
+		small.stop();
+	}
+
+	private SessionTokens tokens() {
+		return (SessionTokens) repository.findById(sessionId).getAttribute(SessionTokens.ATTRIBUTE);
+	}
+}
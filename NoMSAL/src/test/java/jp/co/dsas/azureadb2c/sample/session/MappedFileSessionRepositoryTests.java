@@ -0,0 +1,157 @@
+package jp.co.dsas.azureadb2c.sample.session;
+
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.service.SessionTokens;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.session.MapSession;
+import org.springframework.session.events.SessionExpiredEvent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedFileSessionRepositoryTests {
+
+	private static final int SLOT_SIZE = 4096;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void freedSlotIsReused() throws Exception {
+		try (var repository = open(2)) {
+			var first = save(repository, "user", "first");
+			save(repository, "user", "second");
+			// Both slots are taken
+			assertThrows(IllegalStateException.class, () -> save(repository, "user", "third"));
+
+			repository.deleteById(first.getId());
+			var third = save(repository, "user", "third");
+			assertEquals("third", repository.findById(third.getId()).getAttribute("user"));
+			assertNull(repository.findById(first.getId()));
+			assertEquals(2, repository.size());
+		}
+	}
+
+	@Test
+	void changedIdKeepsTheSessionInItsSlot() throws Exception {
+		try (var repository = open(1)) {
+			var session = save(repository, "user", "alice");
+			var originalId = session.getId();
+
+			// The id is changed on sign-in, and the only slot is moved to the new id
+			var copy = repository.findById(originalId);
+			copy.changeSessionId();
+			repository.save(copy);
+
+			assertNull(repository.findById(originalId));
+			assertEquals("alice", repository.findById(copy.getId()).getAttribute("user"));
+			assertEquals(1, repository.size());
+		}
+	}
+
+	@Test
+	void sessionsAreReadBackAfterRestart() throws Exception {
+		String id;
+		try (var repository = open(4)) {
+			var session = repository.createSession();
+			session.setAttribute("user", "alice");
+			session.setAttribute(SessionTokens.ATTRIBUTE, tokens("a1", 1));
+			repository.save(session);
+			id = session.getId();
+		}
+
+		try (var repository = open(4)) {
+			var session = repository.findById(id);
+			assertEquals("alice", session.getAttribute("user"));
+			assertEquals("a1", ((SessionTokens) session.getAttribute(SessionTokens.ATTRIBUTE)).token().getAccessToken());
+			assertEquals(1, repository.size());
+		}
+	}
+
+	@Test
+	void fileOpenedTwiceIsRejected() throws Exception {
+		try (var repository = open(1)) {
+			var e = assertThrows(IOException.class, () -> open(1));
+			assertTrue(e.getMessage().contains("used by another process"), e.getMessage());
+		}
+	}
+
+	@Test
+	void sessionLargerThanASlotDoesNotFit() throws Exception {
+		try (var repository = open(1)) {
+			var session = repository.createSession();
+			session.setAttribute("user", "a".repeat(SLOT_SIZE));
+
+			assertFalse(repository.fits(session));
+			assertThrows(IllegalStateException.class, () -> repository.save(session));
+			assertEquals(0, repository.size());
+		}
+	}
+
+	@Test
+	void olderCopyDoesNotRestoreTheOlderTokens() throws Exception {
+		try (var repository = open(1)) {
+			var session = repository.createSession();
+			session.setAttribute(SessionTokens.ATTRIBUTE, tokens("a1", 1));
+			repository.save(session);
+			var requestCopy = repository.findById(session.getId());
+
+			// The tokens are refreshed while a request holds its copy
+			var refreshed = repository.findById(session.getId());
+			refreshed.setAttribute(SessionTokens.ATTRIBUTE, tokens("a2", 2));
+			repository.save(refreshed);
+			requestCopy.setAttribute("visited", true);
+			repository.save(requestCopy);
+
+			var stored = repository.findById(session.getId());
+			assertEquals("a2", ((SessionTokens) stored.getAttribute(SessionTokens.ATTRIBUTE)).token().getAccessToken());
+			assertEquals(true, stored.getAttribute("visited"));
+		}
+	}
+
+	@Test
+	void expiredSessionIsSweptWithAnEvent() throws Exception {
+		try (var repository = open(1)) {
+			var events = new ArrayList<Object>();
+			repository.setApplicationEventPublisher(events::add);
+			var session = repository.createSession();
+			session.setLastAccessedTime(Instant.now().minus(Duration.ofHours(1)));
+			repository.save(session);
+
+			repository.sweep();
+			assertEquals(0, repository.size());
+			assertEquals(1, events.size());
+			assertTrue(events.get(0) instanceof SessionExpiredEvent);
+			// The slot is free again
+			save(repository, "user", "alice");
+		}
+	}
+
+	private MappedFileSessionRepository open(int slotCount) throws IOException {
+		return new MappedFileSessionRepository(dir.resolve("sessions/sessions.dat"), SLOT_SIZE, slotCount,
+				Duration.ofMinutes(30));
+	}
+
+	private static MapSession save(MappedFileSessionRepository repository, String name, Object value) {
+		var session = repository.createSession();
+		session.setAttribute(name, value);
+		repository.save(session);
+		return session;
+	}
+
+	private static SessionTokens tokens(String accessToken, long version) {
+		var token = new TokenInfo();
+		token.setAccessToken(accessToken);
+		return new SessionTokens("default", token, version);
+	}
+}
@@ -0,0 +1,86 @@
+package jp.co.dsas.azureadb2c.sample.session;
+
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.service.SessionTokens;
+import org.junit.jupiter.api.Test;
+import org.springframework.session.MapSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SessionCodecTests {
+
+	@Test
+	void attributesAreReadBack() throws Exception {
+		var session = new MapSession("s1");
+		session.setAttribute("string", "value");
+		session.setAttribute("integer", 42);
+		session.setAttribute("long", 42L);
+		session.setAttribute("boolean", true);
+		session.setAttribute("null", null);
+		var token = new TokenInfo();
+		token.setAccessToken("a1");
+		session.setAttribute(SessionTokens.ATTRIBUTE, new SessionTokens("default", token, 7));
+
+		var bytes = SessionCodec.encode(session);
+		var decoded = SessionCodec.decode(bytes, bytes.length);
+		assertEquals("s1", decoded.getId());
+		assertEquals(session.getCreationTime().toEpochMilli(), decoded.getCreationTime().toEpochMilli());
+		assertEquals(session.getMaxInactiveInterval(), decoded.getMaxInactiveInterval());
+		assertEquals("value", decoded.getAttribute("string"));
+		assertEquals(42, (Integer) decoded.getAttribute("integer"));
+		assertEquals(42L, (Long) decoded.getAttribute("long"));
+		assertEquals(true, decoded.getAttribute("boolean"));
+		var tokens = (SessionTokens) decoded.getAttribute(SessionTokens.ATTRIBUTE);
+		assertEquals("a1", tokens.token().getAccessToken());
+		assertEquals(7, tokens.version());
+	}
+
+	@Test
+	void attributeOutsideTheAllowListIsNotEncoded() {
+		var session = new MapSession("s1");
+		session.setAttribute("map", new HashMap<String, String>());
+
+		assertThrows(IOException.class, () -> SessionCodec.encode(session));
+	}
+
+	@Test
+	void serializedClassOutsideTheAllowListIsNotDecoded() throws Exception {
+		// A session changed outside of this process to carry another serialized class
+		var serialized = new ByteArrayOutputStream();
+		try (var objectOut = new ObjectOutputStream(serialized)) {
+			objectOut.writeObject(new HashMap<>(Map.of("key", "value")));
+		}
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		out.writeUTF("s1");
+		out.writeLong(0);
+		out.writeLong(0);
+		out.writeInt(1800);
+		out.writeShort(1);
+		out.writeUTF("map");
+		out.writeByte(5);
+		out.writeInt(serialized.size());
+		serialized.writeTo(out);
+		out.flush();
+
+		assertThrows(InvalidClassException.class, () -> SessionCodec.decode(bytes.toByteArray(), bytes.size()));
+	}
+
+	@Test
+	void truncatedSessionIsNotDecoded() throws Exception {
+		var session = new MapSession("s1");
+		session.setAttribute("string", "value");
+		var bytes = SessionCodec.encode(session);
+
+		assertThrows(IOException.class, () -> SessionCodec.decode(bytes, bytes.length - 3));
+	}
+}
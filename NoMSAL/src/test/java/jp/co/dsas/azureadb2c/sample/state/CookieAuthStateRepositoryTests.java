@@ -0,0 +1,111 @@
+package jp.co.dsas.azureadb2c.sample.state;
+
+import jakarta.servlet.http.Cookie;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CookieAuthStateRepositoryTests {
+
+	@Test
+	void stateIsReadBackFromTheCookie() throws Exception {
+		var config = config();
+
+		var cookie = save(config, "s1", 42);
+		assertEquals(42, consume(config, new PendingAuthorizationStore(config), cookie, "s1"));
+	}
+
+	@Test
+	void tamperedCookieIsRejected() throws Exception {
+		var config = config();
+		var cookie = save(config, "s1", 42);
+		var chars = cookie.toCharArray();
+		chars[chars.length / 2] = chars[chars.length / 2] == 'A' ? 'B' : 'A';
+
+		assertBadState(() -> consume(config, new PendingAuthorizationStore(config), new String(chars), "s1"));
+	}
+
+	@Test
+	void cookieOfAnotherSecretIsRejected() throws Exception {
+		var cookie = save(config(), "s1", 42);
+		var other = config();
+		other.setAuthStateSecret("another-secret-of-another-deployment");
+
+		assertBadState(() -> consume(other, new PendingAuthorizationStore(other), cookie, "s1"));
+	}
+
+	@Test
+	void expiredCookieIsRejected() throws Exception {
+		var config = config();
+		config.setAuthStateMaxAge(Duration.ofMillis(1));
+		var cookie = save(config, "s1", 42);
+		Thread.sleep(10);
+
+		assertBadState(() -> consume(config, new PendingAuthorizationStore(config), cookie, "s1"));
+	}
+
+	@Test
+	void otherStateIsRejected() throws Exception {
+		var config = config();
+		var cookie = save(config, "s1", 42);
+
+		assertBadState(() -> consume(config, new PendingAuthorizationStore(config), cookie, "s2"));
+	}
+
+	@Test
+	void replayedCookieIsRejected() throws Exception {
+		var config = config();
+		var store = new PendingAuthorizationStore(config);
+		var cookie = save(config, "s1", 42);
+
+		consume(config, store, cookie, "s1");
+		assertBadState(() -> consume(config, store, cookie, "s1"));
+	}
+
+	@Test
+	void startupFailsWithoutASecret() {
+		var config = new WebAppConfig();
+		var store = new PendingAuthorizationStore(config);
+
+		assertThrows(IllegalStateException.class, () -> new CookieAuthStateRepository(config,
+				new MockHttpServletRequest(), new MockHttpServletResponse(), store));
+		// Only an explicit opt-in allows the random secret
+		config.setAuthStateRandomSecret(true);
+		new CookieAuthStateRepository(config, new MockHttpServletRequest(), new MockHttpServletResponse(), store);
+	}
+
+	private static WebAppConfig config() {
+		var config = new WebAppConfig();
+		config.setAuthStateSecret("a-secret-shared-by-all-nodes");
+		return config;
+	}
+
+	private static String save(WebAppConfig config, String state, Integer nonce) {
+		var response = new MockHttpServletResponse();
+		new CookieAuthStateRepository(config, new MockHttpServletRequest(), response, new PendingAuthorizationStore(config))
+				.save(state, nonce);
+		var header = response.getHeader(HttpHeaders.SET_COOKIE);
+		return header.substring(CookieAuthStateRepository.COOKIE_NAME.length() + 1, header.indexOf(';'));
+	}
+
+	private static Integer consume(WebAppConfig config, PendingAuthorizationStore store, String cookie, String state)
+			throws SampleException {
+		var request = new MockHttpServletRequest();
+		request.setCookies(new Cookie(CookieAuthStateRepository.COOKIE_NAME, cookie));
+		return new CookieAuthStateRepository(config, request, new MockHttpServletResponse(), store).consume(state);
+	}
+
+	private static void assertBadState(Executable executable) {
+		var e = assertThrows(SampleException.class, executable);
+		assertEquals(SampleException.Reason.BAD_STATE, e.getReason());
+	}
+}
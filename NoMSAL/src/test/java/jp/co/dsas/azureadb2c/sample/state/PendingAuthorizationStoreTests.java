@@ -0,0 +1,76 @@
+package jp.co.dsas.azureadb2c.sample.state;
+
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingAuthorizationStoreTests {
+
+	@Test
+	void stateIsConsumedOnlyOnce() throws Exception {
+		var store = new PendingAuthorizationStore(new WebAppConfig());
+
+		assertTrue(store.register("s1", 42));
+		assertFalse(store.register("s1", 43));
+		assertEquals(42, store.consume("s1").nonce());
+		assertNull(store.consume("s1"));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	void registrationOverTheCapIsRejected() throws Exception {
+		var config = new WebAppConfig();
+		config.setAuthStateMaxPending(2);
+		var store = new PendingAuthorizationStore(config);
+		store.register("s1", 1);
+		store.register("s2", 2);
+
+		var e = assertThrows(SampleException.class, () -> store.register("s3", 3));
+		assertEquals(SampleException.Reason.TOO_MANY_PENDING, e.getReason());
+		// A consumed state frees its place
+		store.consume("s1");
+		assertTrue(store.register("s3", 3));
+	}
+
+	@Test
+	void consumedStatesHaveTheirOwnCap() throws Exception {
+		var config = new WebAppConfig();
+		config.setAuthStateMaxPending(1);
+		config.setAuthStateMaxConsumed(2);
+		var store = new PendingAuthorizationStore(config);
+		var expiresAt = System.currentTimeMillis() + 60_000;
+
+		assertTrue(store.markConsumed("c1", expiresAt));
+		assertFalse(store.markConsumed("c1", expiresAt));
+		assertTrue(store.markConsumed("c2", expiresAt));
+		// The consumed states do not take the place of a sign-in in progress
+		assertTrue(store.register("s1", 1));
+		// A state that cannot be remembered is rejected, so it cannot be replayed
+		var e = assertThrows(SampleException.class, () -> store.markConsumed("c3", expiresAt));
+		assertEquals(SampleException.Reason.TOO_MANY_PENDING, e.getReason());
+		assertEquals(2, store.consumedSize());
+	}
+
+	@Test
+	void sweepRemovesTheExpiredEntries() throws Exception {
+		var config = new WebAppConfig();
+		config.setAuthStateMaxAge(Duration.ofSeconds(1));
+		var store = new PendingAuthorizationStore(config);
+		store.register("s1", 1);
+		store.markConsumed("c1", System.currentTimeMillis() + 1000);
+
+		Thread.sleep(2100);
+		store.sweep();
+		assertEquals(0, store.size());
+		assertEquals(0, store.consumedSize());
+		assertNull(store.consume("s1"));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.reactive.config;
+
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+import java.time.Duration;
+
+/**
+ * Web application config class
+ */
+@Configuration
+@Data
+public class WebAppConfig implements WebFluxConfigurer {
+
+    /**
+     * Azure AD B2C tenant name
+     */
+    @Value("${spring.application.tenant}")
+    private String tenant = "your-tenant-name";
+
+    /**
+     * Azure AD B2C tenant id
+     */
+    @Value("${spring.application.tenant_id}")
+    private String tenantId = "your-tenant-id";
+
+    /**
+     * Azure AD B2C client id
+     */
+    @Value("${spring.application.client_id}")
+    private String clientId = "your-client-id";
+
+    /**
+     * Azure AD B2C scope
+     */
+    @Value("${spring.application.scope}")
+    private String scope = "openid";
+
+    /**
+     * Azure AD B2C client secret
+     */
+    @Value("${spring.application.secret}")
+    private String secret = "your-secret";
+
+    /**
+     * Azure AD B2C user flow name
+     */
+    @Value("${spring.application.user_flow}")
+    private String userFlow = "B2C_1_user_flow";
+
+    /**
+     * The scheme and host of the Azure AD B2C endpoints, or empty for https://{tenant}.b2clogin.com
+     */
+    @Value("${spring.application.authority_host}")
+    private String authorityHost = "";
+
+    /**
+     * How long the cached signing keys are used before they are fetched again
+     */
+    @Value("${spring.application.jwks.ttl}")
+    private Duration jwksTtl = Duration.ofMinutes(10);
+
+    /**
+     * The minimum interval between the fetches caused by an unknown key id
+     */
+    @Value("${spring.application.jwks.negative_ttl}")
+    private Duration jwksNegativeTtl = Duration.ofSeconds(30);
+
+    /**
+     * The timeout for connecting to Azure AD B2C
+     */
+    @Value("${spring.application.http.connect_timeout}")
+    private Duration httpConnectTimeout = Duration.ofSeconds(5);
+
+    /**
+     * The timeout for reading the response from Azure AD B2C
+     */
+    @Value("${spring.application.http.read_timeout}")
+    private Duration httpReadTimeout = Duration.ofSeconds(10);
+
+    /**
+     * The maximum number of connections to Azure AD B2C
+     */
+    @Value("${spring.application.http.max_connections}")
+    private int httpMaxConnections = 20;
+
+    /**
+     * How long an idle connection is kept alive
+     */
+    @Value("${spring.application.http.keep_alive}")
+    private Duration httpKeepAlive = Duration.ofMinutes(5);
+
+    /**
+     * Get the issuer of the tokens issued by the user flow
+     *
+     * @return The issuer
+     */
+    public String getIssuer() {
+        return _host() + "/" + tenantId + "/v2.0/";
+    }
+
+    /**
+     * Get the base URL of the endpoints of the user flow
+     *
+     * @return The base URL without the trailing slash
+     */
+    public String getAuthority() {
+        return _host() + "/" + tenant + ".onmicrosoft.com/" + userFlow;
+    }
+
+    /**
+     * Get the scheme and host of the endpoints.
+     * It can be replaced, e.g. by a local stand-in of Azure AD B2C for the load tests.
+     *
+     * @return The scheme and host without the trailing slash
+     */
+    private String _host() {
+        return authorityHost != null && !authorityHost.isBlank()
+                ? authorityHost.replaceAll("/+$", "")
+                : "https://" + tenant + ".b2clogin.com";
+    }
+}
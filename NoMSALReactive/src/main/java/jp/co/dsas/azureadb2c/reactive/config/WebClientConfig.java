@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.reactive.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * The non-blocking HTTP client config class for the calls to Azure AD B2C
+ */
+@Configuration
+public class WebClientConfig {
+
+    /**
+     * The shared non-blocking client with a bounded connection pool.
+     * HTTP/2 is negotiated when the server supports it.
+     *
+     * @param webAppConfig     The web app configuration
+     * @param webClientBuilder The builder configured by Spring Boot
+     * @return The client
+     */
+    @Bean
+    public WebClient b2cWebClient(WebAppConfig webAppConfig, WebClient.Builder webClientBuilder) {
+        var provider = ConnectionProvider.builder("b2c")
+                .maxConnections(webAppConfig.getHttpMaxConnections())
+                .maxIdleTime(webAppConfig.getHttpKeepAlive())
+                .build();
+        var httpClient = HttpClient.create(provider)
+                .protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) webAppConfig.getHttpConnectTimeout().toMillis())
+                .responseTimeout(webAppConfig.getHttpReadTimeout());
+        return webClientBuilder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.reactive.controller;
+
+import jp.co.dsas.azureadb2c.reactive.config.WebAppConfig;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.server.WebSession;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * Controller for the logout
+ */
+@Controller
+public class LogoutController {
+
+    private final WebAppConfig _webAppConfig;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig web app config
+     */
+    public LogoutController(WebAppConfig webAppConfig) {
+        this._webAppConfig = webAppConfig;
+    }
+
+    /**
+     * Redirect to the azure ad b2c sign-out page
+     *
+     * @param session session
+     * @return The sign-out page
+     */
+    @GetMapping("logout")
+    public Mono<String> logoutView(WebSession session) {
+        // Create the URL for the azure ad b2c sign-out page
+        StringBuilder url = new StringBuilder();
+        url.append(_webAppConfig.getAuthority());
+        url.append("/oauth2/v2.0/logout?");
+        url.append("redirect_uri=http://localhost:8080/sign_out");
+        url.append("&state=");
+        UUID uuid = UUID.randomUUID();
+        String state = uuid.toString();
+        url.append(state);
+
+        // Save the state in the session for later verification
+        session.getAttributes().put("state", state);
+
+        // redirect to the azure ad b2c sign-out page
+        return Mono.just("redirect:" + url);
+    }
+}
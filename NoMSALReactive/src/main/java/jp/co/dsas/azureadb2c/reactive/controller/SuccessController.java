@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.reactive.controller;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import jp.co.dsas.azureadb2c.reactive.Exception.SampleException;
+import jp.co.dsas.azureadb2c.reactive.service.B2cTokenClient;
+import jp.co.dsas.azureadb2c.reactive.service.JwtVerifierCache;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.server.WebSession;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * The controller class for the sign-in success page
+ */
+@Controller
+public class SuccessController {
+
+    /**
+     * The shared formatter for the local date/time strings
+     */
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.JAPAN) // Example locale
+                    .withZone(ZoneId.systemDefault());
+
+    /**
+     * The shared cache of the token verifiers
+     */
+    private final JwtVerifierCache _verifierCache;
+
+    /**
+     * The client for the token endpoint
+     */
+    private final B2cTokenClient _tokenClient;
+
+    /**
+     * Constructor
+     *
+     * @param verifierCache The token verifier cache
+     * @param tokenClient   The client for the token endpoint
+     */
+    public SuccessController(JwtVerifierCache verifierCache, B2cTokenClient tokenClient) {
+        this._verifierCache = verifierCache;
+        this._tokenClient = tokenClient;
+    }
+
+    /**
+     * the method for authentication and forwarding to the sign-in success page
+     *
+     * @param model            model for the user's information
+     * @param session          The session
+     * @param state            state for checking the request and response are matched
+     * @param idToken          id token
+     * @param code             authorization code
+     * @param error            error code.
+     * @param errorDescription error description message.
+     * @return The sign-in success page
+     */
+    @GetMapping("success")
+    public Mono<String> successView(Model model,
+                                    WebSession session,
+                                    @RequestParam(name = "state", required = false) String state,
+                                    @RequestParam(name = "id_token", required = false) String idToken,
+                                    @RequestParam(name = "code", required = false) String code,
+                                    @RequestParam(name = "error", required = false) String error,
+                                    @RequestParam(name = "error_description", required = false) String errorDescription) {
+
+        // Get the state and nonce from the session
+        String check_state = session.getAttribute("state");
+        // validate the state, then if state from the request is not equal to the state from the session, forward to an error page
+        if (state == null || !state.equals(check_state)) {
+            // If the state is invalid, forward to an error page
+            return Mono.error(new SampleException("The state is invalid."));
+        }
+        // If the error is not null, forward to an error page
+        if (error != null) {
+            return Mono.error(new SampleException(errorDescription));
+        }
+
+        // validate the id token, then if the id token is null, forward to an error page
+        if (idToken == null) {
+            return Mono.error(new SampleException("The id token is null."));
+        }
+        Integer nonce = session.getAttribute("nonce");
+
+        // validate the id token, then redeem the authorization code without blocking the event loop
+        return _verifyIdToken(idToken, nonce)
+                .then(_tokenClient.redeem(code))
+                .handle((token, sink) -> {
+                    try {
+                        // Get the user's name from the profile_info in Json because the profile info is encoded by BASE64.
+                        var userInfo = _tokenClient.readProfile(token);
+
+                        // Set the user's name, access token, refresh token to the model.
+                        var success = new Success();
+                        success.setUserName(userInfo.getName());
+                        success.setToken(token.getAccessToken());
+                        success.setRefreshToken(token.getRefreshToken());
+                        success.setNbf(DATE_FORMATTER.format(token.getNotBeforeInstant()));
+                        success.setExp(DATE_FORMATTER.format(token.getAccessTokenExpiresAt()));
+                        success.setRefreshTokenExp(DATE_FORMATTER.format(token.getRefreshTokenExpiresAt()));
+                        model.addAttribute("success", success);
+
+                        // forward to the sign-in success page
+                        sink.next("success");
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                });
+    }
+
+    /**
+     * validate the id token
+     *
+     * @param idToken The id token
+     * @param nonce   The value that application generated randomly
+     * @return Empty if the id token is valid, otherwise an error
+     */
+    private Mono<Void> _verifyIdToken(String idToken, Integer nonce) {
+        DecodedJWT decodedJwt;
+        try {
+            decodedJwt = JWT.decode(idToken);
+        } catch (JWTVerificationException e) {
+            return Mono.error(new SampleException(e.getMessage()));
+        }
+        return _verifierCache.getVerifier(decodedJwt.getKeyId())
+                .<Void>handle((verifier, sink) -> {
+                    try {
+                        var verifiedJwt = verifier.verify(decodedJwt);
+                        // nonce is String in the id token
+                        if (!String.valueOf(nonce).equals(verifiedJwt.getClaim("nonce").asString())) {
+                            sink.error(new SampleException("The nonce is invalid."));
+                        } else {
+                            sink.complete();
+                        }
+                    } catch (JWTVerificationException e) {
+                        sink.error(new SampleException(e.getMessage()));
+                    }
+                });
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.reactive.controller;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * The class for the id token information.
+ * The numeric values are parsed once during deserialization, and the instants when the tokens
+ * become valid and invalid are computed as the values are set.
+ */
+@Data
+public class TokenInfo {
+    @JsonProperty("access_token")
+    private String accessToken;
+
+    @JsonProperty("token_type")
+    private String tokenType;
+
+    @JsonProperty("id_token")
+    private String idToken;
+
+    @JsonProperty("id_token_expires_in")
+    private long idTokenExpiresIn;
+
+    @JsonProperty("scope")
+    private String scope;
+
+    @JsonProperty("profile_info")
+    private String profileInfoEncoded;
+
+    @JsonProperty("resource")
+    private String resource;
+
+    @JsonProperty("expires_in")
+    private long expiresIn;
+
+    @JsonProperty("ext_expires_in")
+    private long extExpiresIn;
+
+    @JsonProperty("expires_on")
+    private long expiresOn;
+
+    @JsonProperty("not_before")
+    private long notBefore;
+
+    @JsonProperty("refresh_token")
+    private String refreshToken;
+
+    @JsonProperty("refresh_token_expires_in")
+    private long refreshTokenExpiresIn;
+
+    /**
+     * The instant when the access token becomes valid
+     */
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private Instant notBeforeInstant = Instant.EPOCH;
+
+    /**
+     * The instant when the access token becomes invalid
+     */
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private Instant accessTokenExpiresAt = Instant.EPOCH;
+
+    /**
+     * The instant when the refresh token becomes invalid
+     */
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    private Instant refreshTokenExpiresAt = Instant.EPOCH;
+
+    /**
+     * Set the epoch time when the access token becomes valid
+     *
+     * @param notBefore The epoch seconds
+     */
+    public void setNotBefore(long notBefore) {
+        this.notBefore = notBefore;
+        this.notBeforeInstant = Instant.ofEpochSecond(notBefore);
+        this.accessTokenExpiresAt = Instant.ofEpochSecond(notBefore + expiresIn);
+        this.refreshTokenExpiresAt = Instant.ofEpochSecond(notBefore + refreshTokenExpiresIn);
+    }
+
+    /**
+     * Set the lifetime of the access token
+     *
+     * @param expiresIn The seconds
+     */
+    public void setExpiresIn(long expiresIn) {
+        this.expiresIn = expiresIn;
+        this.accessTokenExpiresAt = Instant.ofEpochSecond(notBefore + expiresIn);
+    }
+
+    /**
+     * Set the lifetime of the refresh token
+     *
+     * @param refreshTokenExpiresIn The seconds
+     */
+    public void setRefreshTokenExpiresIn(long refreshTokenExpiresIn) {
+        this.refreshTokenExpiresIn = refreshTokenExpiresIn;
+        this.refreshTokenExpiresAt = Instant.ofEpochSecond(notBefore + refreshTokenExpiresIn);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.reactive.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jp.co.dsas.azureadb2c.reactive.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.reactive.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.reactive.controller.UserInfo;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The non-blocking client class for the token endpoint of the user flow
+ */
+@Component
+public class B2cTokenClient {
+
+    private final WebAppConfig _webAppConfig;
+
+    private final WebClient _webClient;
+
+    /**
+     * The shared reader for the decoded profile_info
+     */
+    private final ObjectReader _userInfoReader;
+
+    /**
+     * The URL template of the token endpoint
+     */
+    private final String _tokenUrl;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     * @param webClient    The shared non-blocking client
+     * @param objectMapper The JSON mapper
+     */
+    public B2cTokenClient(WebAppConfig webAppConfig, WebClient webClient, ObjectMapper objectMapper) {
+        this._webAppConfig = webAppConfig;
+        this._webClient = webClient;
+        this._userInfoReader = objectMapper.readerFor(UserInfo.class);
+        this._tokenUrl = webAppConfig.getAuthority() +
+                "/oauth2/v2.0/token?grant_type={grant_type}&client_id={client_id}&scope={scope}&code={code}&redirect_uri={redirect_uri}&client_secret={client_secret}";
+    }
+
+    /**
+     * Redeem the authorization code for the tokens
+     *
+     * @param code The authorization code
+     * @return The tokens
+     */
+    public Mono<TokenInfo> redeem(String code) {
+        Map<String, String> params = new HashMap<>();
+        params.put("grant_type", "authorization_code");
+        params.put("client_id", _webAppConfig.getClientId());
+        String scope = _webAppConfig.getClientId() + " offline_access";
+        params.put("scope", scope);
+        params.put("code", code);
+        params.put("redirect_uri", "urn:ietf:wg:oauth:2.0:oob");
+        params.put("client_secret", _webAppConfig.getSecret());
+
+        return _webClient.post()
+                .uri(_tokenUrl, params)
+                .retrieve()
+                .bodyToMono(TokenInfo.class);
+    }
+
+    /**
+     * Read the user's information from the profile_info encoded by BASE64
+     *
+     * @param token The tokens
+     * @return The user's information
+     * @throws IOException The exception class for the invalid JSON
+     */
+    public UserInfo readProfile(TokenInfo token) throws IOException {
+        var json = Base64.getDecoder().decode(token.getProfileInfoEncoded());
+        return _userInfoReader.readValue(json);
+    }
+}
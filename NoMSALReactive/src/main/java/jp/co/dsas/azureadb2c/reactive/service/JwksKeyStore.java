@@ -0,0 +1,178 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.reactive.service;
+
+import jp.co.dsas.azureadb2c.reactive.Exception.SampleException;
+import jp.co.dsas.azureadb2c.reactive.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.reactive.controller.JwkObject;
+import jp.co.dsas.azureadb2c.reactive.controller.JwkSet;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide non-blocking cache of the signing keys published by the Azure AD B2C user flow.
+ * <p>
+ * The keys are held by a cached {@link Mono}, so the concurrent lookups share one fetch and
+ * no thread waits while the keys are fetched. An unknown key id replaces the cached keys
+ * at most once per {@code spring.application.jwks.negative_ttl}.
+ */
+@Component
+public class JwksKeyStore {
+
+    private final WebAppConfig _webAppConfig;
+
+    private final WebClient _webClient;
+
+    /**
+     * The jwks_uri of the user flow
+     */
+    private final String _keysUrl;
+
+    /**
+     * The current keys, cached for the configured TTL
+     */
+    private final AtomicReference<Mono<Map<String, RSAPublicKey>>> _keys = new AtomicReference<>();
+
+    /**
+     * The epoch milliseconds of the last fetch caused by an unknown key id
+     */
+    private volatile long _lastForcedFetch;
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     * @param webClient    The shared non-blocking client
+     */
+    public JwksKeyStore(WebAppConfig webAppConfig, WebClient webClient) {
+        this._webAppConfig = webAppConfig;
+        this._webClient = webClient;
+        this._keysUrl = webAppConfig.getAuthority() + "/discovery/v2.0/keys/";
+        this._keys.set(_fetch());
+    }
+
+    /**
+     * Get the public key for the key id
+     *
+     * @param kid The key id in the header of the token
+     * @return The public key, or an error if the key is not found
+     */
+    public Mono<RSAPublicKey> getKey(String kid) {
+        if (kid == null) {
+            // The keys are held in a map that rejects a null key, and no key of the user flow matches a token without a kid
+            return Mono.error(new SampleException("The token has no kid"));
+        }
+        var keys = _keys.get();
+        return keys
+                .flatMap(map -> {
+                    var key = map.get(kid);
+                    if (key != null) {
+                        return Mono.just(key);
+                    }
+                    // The key may have been rotated, so fetch the keys again
+                    return _refresh(keys).flatMap(refreshed -> Mono.justOrEmpty(refreshed.get(kid)));
+                })
+                .switchIfEmpty(Mono.error(() -> new SampleException("No key found for kid " + kid)));
+    }
+
+    /**
+     * Replace the cached keys unless another request has already replaced them
+     *
+     * @param seen The keys that did not contain the key id
+     * @return The current keys
+     */
+    private Mono<Map<String, RSAPublicKey>> _refresh(Mono<Map<String, RSAPublicKey>> seen) {
+        var now = System.currentTimeMillis();
+        if (now - _lastForcedFetch < _webAppConfig.getJwksNegativeTtl().toMillis()) {
+            return _keys.get();
+        }
+        var next = _fetch();
+        if (_keys.compareAndSet(seen, next)) {
+            _lastForcedFetch = now;
+            return next;
+        }
+        return _keys.get();
+    }
+
+    /**
+     * Create the fetch of the keys, shared by the subscribers until the TTL expires
+     *
+     * @return The keys
+     */
+    private Mono<Map<String, RSAPublicKey>> _fetch() {
+        return _webClient.get()
+                .uri(_keysUrl)
+                .retrieve()
+                .bodyToMono(JwkSet.class)
+                .map(JwksKeyStore::_parseKeys)
+                .cache(keys -> _webAppConfig.getJwksTtl(), e -> Duration.ZERO, () -> Duration.ZERO);
+    }
+
+    /**
+     * Convert the JSON Web Key Set to the public keys indexed by the key id
+     *
+     * @param jwkSet The JSON Web Key Set
+     * @return The public keys
+     */
+    private static Map<String, RSAPublicKey> _parseKeys(JwkSet jwkSet) {
+        var keys = new HashMap<String, RSAPublicKey>();
+        if (jwkSet.getKeys() != null) {
+            for (JwkObject jwk : jwkSet.getKeys()) {
+                if ("RSA".equals(jwk.getKty()) && jwk.getKid() != null) {
+                    keys.put(jwk.getKid(), _toPublicKey(jwk));
+                }
+            }
+        }
+        return Map.copyOf(keys);
+    }
+
+    /**
+     * Convert the modulus and the exponent of the JSON Web Key to the public key
+     *
+     * @param jwk The JSON Web Key
+     * @return The public key
+     */
+    private static RSAPublicKey _toPublicKey(JwkObject jwk) {
+        try {
+            var decoder = Base64.getUrlDecoder();
+            var modulus = new BigInteger(1, decoder.decode(jwk.getN()));
+            var exponent = new BigInteger(1, decoder.decode(jwk.getE()));
+            return (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+        } catch (GeneralSecurityException | NullPointerException e) {
+            throw new IllegalArgumentException("Invalid key for kid " + jwk.getKid(), e);
+        }
+    }
+}
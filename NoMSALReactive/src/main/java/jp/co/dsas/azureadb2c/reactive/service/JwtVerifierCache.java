@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.reactive.service;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import jp.co.dsas.azureadb2c.reactive.config.WebAppConfig;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the prebuilt token verifiers keyed by the key id.
+ * The issuer and the audience are pinned from the configuration.
+ */
+@Component
+public class JwtVerifierCache {
+
+    private final WebAppConfig _webAppConfig;
+
+    private final JwksKeyStore _keyStore;
+
+    /**
+     * The verifiers by the key id
+     */
+    private final ConcurrentHashMap<String, CachedVerifier> _verifiers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param webAppConfig The web app configuration
+     * @param keyStore     The signing key cache
+     */
+    public JwtVerifierCache(WebAppConfig webAppConfig, JwksKeyStore keyStore) {
+        this._webAppConfig = webAppConfig;
+        this._keyStore = keyStore;
+    }
+
+    /**
+     * Get the verifier for the key id
+     *
+     * @param kid The key id in the header of the token
+     * @return The verifier
+     */
+    public Mono<JWTVerifier> getVerifier(String kid) {
+        return _keyStore.getKey(kid).map(publicKey -> {
+            var cached = _verifiers.get(kid);
+            if (cached != null && cached.publicKey() == publicKey) {
+                return cached.verifier();
+            }
+            var verifier = JWT.require(Algorithm.RSA256(publicKey, null))
+                    .withIssuer(_webAppConfig.getIssuer())
+                    .withAudience(_webAppConfig.getClientId())
+                    .build();
+            _verifiers.put(kid, new CachedVerifier(publicKey, verifier));
+            return verifier;
+        });
+    }
+
+    /**
+     * The verifier and the key it was built with
+     *
+     * @param publicKey The public key
+     * @param verifier  The verifier
+     */
+    private record CachedVerifier(RSAPublicKey publicKey, JWTVerifier verifier) {
+    }
+}
@@ -0,0 +1,13 @@
+package jp.co.dsas.azureadb2c.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class AzureAdB2cReactiveSampleApplicationTests {
+
+	@Test
+	void contextLoads() {
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.audit.AuditLog;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.controller.UserInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of publishing an audit record on the request thread, alone and with other request
+ * threads publishing at the same time.
+ * <p>
+ * The writer thread runs as in the application and a benchmark loop publishes faster than any
+ * request rate, so the ring stays full: with overflow "wait" the score is the throughput of the
+ * writer, and with overflow "drop" it is the cost of the publish itself, most of the records being
+ * dropped. The numbers of written and dropped records are printed at the end of each run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditLogBenchmark {
+
+    @Param({"wait", "drop"})
+    public String overflow;
+
+    private Path _dir;
+
+    private SimpleMeterRegistry _meterRegistry;
+
+    private AuditLog _auditLog;
+
+    private UserInfo _user;
+
+    private TokenInfo _token;
+
+    @Setup
+    public void setUp() throws Exception {
+        _dir = Files.createTempDirectory("audit-benchmark");
+        var webAppConfig = new WebAppConfig();
+        webAppConfig.setAuditDir(_dir.toString());
+        webAppConfig.setAuditMaxFiles(2);
+        webAppConfig.setAuditOverflow(overflow);
+        _meterRegistry = new SimpleMeterRegistry();
+        _auditLog = new AuditLog(webAppConfig, _meterRegistry);
+        _auditLog.start();
+
+        // The user and the tokens of a sign-in
+        _user = new UserInfo();
+        _user.setSub("1a2b3c4d-0000-1111-2222-333344445555");
+        _user.setIdp("google.com");
+        _user.setTid("12345xxx-12345-12345-1xxx-x1234x567xxx");
+        _user.setName("Benchmark User");
+        _token = new TokenInfo();
+        _token.setExpiresIn(3600);
+        _token.setRefreshTokenExpiresIn(1209600);
+        _token.setNotBefore(System.currentTimeMillis() / 1000);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _auditLog.stop();
+        System.out.printf("%nAudit records written: %.0f, dropped: %.0f%n",
+                _meterRegistry.counter("b2c.audit.records", "result", "written").count(),
+                _meterRegistry.counter("b2c.audit.records", "result", "dropped").count());
+        FileSystemUtils.deleteRecursively(_dir);
+    }
+
+    /**
+     * Publish the record of a sign-in from one thread
+     */
+    @Benchmark
+    public void publish() {
+        _auditLog.signedIn("default", _user, _token);
+    }
+
+    /**
+     * Publish the record of a sign-in from four threads
+     */
+    @Benchmark
+    @Threads(4)
+    public void publishContended() {
+        _auditLog.signedIn("default", _user, _token);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.benchmark;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.config.B2cFlowProperties;
+import jp.co.dsas.azureadb2c.sample.config.WebAppConfig;
+import jp.co.dsas.azureadb2c.sample.controller.JwkObject;
+import jp.co.dsas.azureadb2c.sample.controller.JwkSet;
+import jp.co.dsas.azureadb2c.sample.guard.B2cCallGuard;
+import jp.co.dsas.azureadb2c.sample.service.B2cFlowRegistry;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The user flow of the benchmarks, wired as in the application but without Azure AD B2C.
+ * <p>
+ * The signing key is generated locally and served from a local keys endpoint. It is fetched once
+ * when the fixture is created, and the tokens signed by it are verified from the cache after that.
+ */
+final class B2cFixture implements AutoCloseable {
+
+    static final String KEY_ID = "benchmark-key";
+
+    final WebAppConfig webAppConfig = new WebAppConfig();
+
+    final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    final B2cCallGuard guard;
+
+    final B2cFlowRegistry flowRegistry;
+
+    private final RSAPrivateKey _privateKey;
+
+    private final RSAPublicKey _publicKey;
+
+    private final HttpServer _keysServer;
+
+    /**
+     * Constructor
+     *
+     * @throws IOException              The exception class for the keys endpoint
+     * @throws NoSuchAlgorithmException The exception class when RSA is not available
+     */
+    B2cFixture() throws IOException, NoSuchAlgorithmException {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        var keyPair = generator.generateKeyPair();
+        _privateKey = (RSAPrivateKey) keyPair.getPrivate();
+        _publicKey = (RSAPublicKey) keyPair.getPublic();
+
+        // Serve the key from the local endpoint, and keep it fresh for the whole run
+        _keysServer = _startKeysServer();
+        webAppConfig.setAuthorityHost("http://127.0.0.1:" + _keysServer.getAddress().getPort());
+        webAppConfig.setJwksTtl(Duration.ofDays(1));
+
+        var meterRegistry = new SimpleMeterRegistry();
+        guard = new B2cCallGuard(webAppConfig, meterRegistry);
+        flowRegistry = new B2cFlowRegistry(webAppConfig, new B2cFlowProperties(), new RestTemplate(), guard,
+                objectMapper, meterRegistry);
+        // Fetch the key before the first iteration
+        flowRegistry.poll();
+    }
+
+    /**
+     * Sign an id token as the user flow does
+     *
+     * @param nonce The nonce of the sign-in
+     * @return The id token
+     */
+    String signIdToken(int nonce) {
+        var flow = flowRegistry.getDefault().flow();
+        var now = Instant.now();
+        return JWT.create()
+                .withKeyId(KEY_ID)
+                .withIssuer(flow.getIssuer())
+                .withAudience(flow.getClientId())
+                .withSubject("6c5a2e6f-3b7d-4d0e-9a51-1f0c2b8e7d44")
+                .withIssuedAt(now)
+                .withNotBefore(now)
+                .withExpiresAt(now.plus(Duration.ofDays(1)))
+                .withClaim("ver", "1.0")
+                .withClaim("nonce", String.valueOf(nonce))
+                .withClaim("auth_time", now.getEpochSecond())
+                .withClaim("name", "Benchmark User")
+                .withClaim("tfp", flow.getUserFlow())
+                .sign(Algorithm.RSA256(_publicKey, _privateKey));
+    }
+
+    @Override
+    public void close() {
+        flowRegistry.stop();
+        guard.stop();
+        _keysServer.stop(0);
+    }
+
+    /**
+     * Start the endpoint that serves the public key as the keys endpoint of every user flow
+     *
+     * @return The started server
+     * @throws IOException The exception class for the failure of binding the port
+     */
+    private HttpServer _startKeysServer() throws IOException {
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        var jwk = new JwkObject();
+        jwk.setKty("RSA");
+        jwk.setUse("sig");
+        jwk.setKid(KEY_ID);
+        jwk.setN(encoder.encodeToString(_toUnsignedBytes(_publicKey.getModulus())));
+        jwk.setE(encoder.encodeToString(_toUnsignedBytes(_publicKey.getPublicExponent())));
+
+        var jwkSet = new JwkSet();
+        jwkSet.setKeys(List.of(jwk));
+        var out = new ByteArrayOutputStream();
+        objectMapper.writeValue(out, jwkSet);
+        var body = out.toByteArray();
+
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Convert the positive integer to the big-endian bytes without the sign byte
+     *
+     * @param value The positive integer
+     * @return The bytes
+     */
+    private static byte[] _toUnsignedBytes(BigInteger value) {
+        var bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            return Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return bytes;
+    }
+}
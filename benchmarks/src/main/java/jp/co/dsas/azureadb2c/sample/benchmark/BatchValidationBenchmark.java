@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.benchmark;
+
+import jp.co.dsas.azureadb2c.sample.controller.TokenValidation;
+import jp.co.dsas.azureadb2c.sample.service.BatchTokenValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The validation of a batch of tokens by the number of the verifying threads.
+ * <p>
+ * The throughput is the batches per second, so the scaling is read across the values of
+ * {@code parallelism} up to the number of the cores of the machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchValidationBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private B2cFixture _fixture;
+
+    private BatchTokenValidator _validator;
+
+    private List<String> _tokens;
+
+    @Setup
+    public void setUp() throws Exception {
+        _fixture = new B2cFixture();
+        _fixture.webAppConfig.setBatchParallelism(parallelism);
+        _validator = new BatchTokenValidator(_fixture.webAppConfig, _fixture.flowRegistry);
+        _tokens = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            _tokens.add(_fixture.signIdToken(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _validator.stop();
+        _fixture.close();
+    }
+
+    /**
+     * Validate the batch
+     *
+     * @return The results by the token
+     */
+    @Benchmark
+    public List<TokenValidation> validate() {
+        return _validator.validate(_tokens);
+    }
+}
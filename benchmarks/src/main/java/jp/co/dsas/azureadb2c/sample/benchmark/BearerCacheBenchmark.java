@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.benchmark;
+
+import com.auth0.jwk.JwkException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.service.VerifiedClaimsCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bearer token of a request to /api served from the cache of the verified claims,
+ * against the full verification done on a miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BearerCacheBenchmark {
+
+    private B2cFixture _fixture;
+
+    private VerifiedClaimsCache _claimsCache;
+
+    private String _token;
+
+    @Setup
+    public void setUp() throws Exception {
+        _fixture = new B2cFixture();
+        _claimsCache = new VerifiedClaimsCache(_fixture.webAppConfig, _fixture.flowRegistry, new SimpleMeterRegistry());
+        _token = _fixture.signIdToken(1);
+        _claimsCache.verify(_token);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _fixture.close();
+    }
+
+    /**
+     * The token found in the cache
+     *
+     * @return The verified token
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    @Benchmark
+    public DecodedJWT cacheHit() throws JwkException {
+        return _claimsCache.verify(_token);
+    }
+
+    /**
+     * The verification done when the token is not in the cache
+     *
+     * @return The verified token
+     * @throws JwkException The exception class for the JSON Web Key
+     */
+    @Benchmark
+    public DecodedJWT fullVerification() throws JwkException {
+        var decodedJwt = JWT.decode(_token);
+        var flow = _fixture.flowRegistry.forToken(decodedJwt);
+        return flow.verifierCache().getVerifier(decodedJwt.getKeyId()).verify(decodedJwt);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.benchmark;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.metrics.SignInMetrics;
+import jp.co.dsas.azureadb2c.sample.service.FlowContext;
+import jp.co.dsas.azureadb2c.sample.service.IdTokenValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The verification of the id token on the redirect back from the user flow.
+ * <p>
+ * The controller's {@link IdTokenValidator} is called as is: the lookup of the flow by the claim
+ * of the token, the cached verifier, the RSA signature, the nonce and the stage timers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdTokenBenchmark {
+
+    private static final int NONCE = 12345;
+
+    private B2cFixture _fixture;
+
+    private IdTokenValidator _validator;
+
+    private String _idToken;
+
+    @Setup
+    public void setUp() throws Exception {
+        _fixture = new B2cFixture();
+        _validator = new IdTokenValidator(_fixture.flowRegistry, new SignInMetrics(new SimpleMeterRegistry()));
+        _idToken = _fixture.signIdToken(NONCE);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _fixture.close();
+    }
+
+    /**
+     * The whole verification of the id token
+     *
+     * @return The user flow that issued the token
+     * @throws SampleException The exception class when the token is invalid
+     */
+    @Benchmark
+    public FlowContext verifyIdToken() throws SampleException {
+        return _validator.validate(_idToken, NONCE);
+    }
+
+    /**
+     * Only the decoding of the token, to tell the parsing from the signature check
+     *
+     * @return The decoded token
+     */
+    @Benchmark
+    public DecodedJWT decodeIdToken() {
+        return JWT.decode(_idToken);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.benchmark;
+
+import jp.co.dsas.azureadb2c.sample.Exception.SampleException;
+import jp.co.dsas.azureadb2c.sample.controller.LoginController;
+import jp.co.dsas.azureadb2c.sample.controller.LogoutController;
+import jp.co.dsas.azureadb2c.sample.state.AuthStateRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The building of the redirect URLs to the sign-in and the sign-out pages of the user flow.
+ * <p>
+ * The state is discarded, so the benchmark measures the controllers and not the store of the state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedirectUrlBenchmark {
+
+    private B2cFixture _fixture;
+
+    private LoginController _loginController;
+
+    private LogoutController _logoutController;
+
+    @Setup
+    public void setUp() throws Exception {
+        _fixture = new B2cFixture();
+        var authStateRepository = new DiscardingAuthStateRepository();
+        _loginController = new LoginController(_fixture.flowRegistry, authStateRepository);
+        _logoutController = new LogoutController(_fixture.flowRegistry, authStateRepository);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _fixture.close();
+    }
+
+    /**
+     * Build the redirect to the sign-in page
+     *
+     * @return The view name with the URL
+     * @throws SampleException The exception class for the unknown user flow
+     */
+    @Benchmark
+    public String login() throws SampleException {
+        return _loginController.loginView(null);
+    }
+
+    /**
+     * Build the redirect to the sign-out page
+     *
+     * @return The view name with the URL
+     * @throws SampleException The exception class for the unknown user flow
+     */
+    @Benchmark
+    public String logout() throws SampleException {
+        return _logoutController.logoutView(null);
+    }
+
+    /**
+     * The repository that keeps nothing
+     */
+    private static final class DiscardingAuthStateRepository implements AuthStateRepository {
+
+        @Override
+        public void save(String state, Integer nonce) {
+        }
+
+        @Override
+        public Integer consume(String state) {
+            return null;
+        }
+
+        @Override
+        public void invalidate() {
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.benchmark;
+
+import jp.co.dsas.azureadb2c.sample.session.HeapSessionRepository;
+import jp.co.dsas.azureadb2c.sample.session.MappedFileSessionRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.session.MapSession;
+import org.springframework.session.SessionRepository;
+import org.springframework.util.FileSystemUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The store of the sessions on the heap against the memory-mapped file.
+ * <p>
+ * One operation saves the session, as the session filter does at the end of a request,
+ * and reads it back, as the next request does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionStoreBenchmark {
+
+    @Param({"heap", "mapped_file"})
+    public String store;
+
+    private Path _dir;
+
+    private SessionRepository<MapSession> _repository;
+
+    private MapSession _session;
+
+    @Setup
+    public void setUp() throws Exception {
+        _dir = Files.createTempDirectory("session-benchmark");
+        _repository = "heap".equals(store)
+                ? new HeapSessionRepository(Duration.ofMinutes(30))
+                : new MappedFileSessionRepository(_dir.resolve("sessions.dat"), 8192, 10_000, Duration.ofMinutes(30));
+
+        // The attributes of a signed-in session
+        _session = _repository.createSession();
+        _session.setAttribute("state", UUID.randomUUID().toString());
+        _session.setAttribute("nonce", 54321);
+        _session.setAttribute("userName", "Benchmark User");
+        _session.setAttribute("flow", "default");
+        _repository.save(_session);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (_repository instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        FileSystemUtils.deleteRecursively(_dir);
+    }
+
+    /**
+     * Save the session and read it back
+     *
+     * @return The session read back
+     */
+    @Benchmark
+    public MapSession saveAndFind() {
+        _session.setLastAccessedTime(Instant.now());
+        _repository.save(_session);
+        return _repository.findById(_session.getId());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.sample.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import jp.co.dsas.azureadb2c.sample.controller.TokenInfo;
+import jp.co.dsas.azureadb2c.sample.controller.UserInfo;
+import jp.co.dsas.azureadb2c.sample.service.B2cTokenClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reading of the response of the token endpoint and of the profile_info in it.
+ * <p>
+ * The response has the size and the fields of a real one, with a signed id token and
+ * access token of the usual length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenResponseBenchmark {
+
+    private B2cFixture _fixture;
+
+    private B2cTokenClient _tokenClient;
+
+    private ObjectReader _tokenReader;
+
+    private byte[] _tokenResponse;
+
+    private TokenInfo _token;
+
+    @Setup
+    public void setUp() throws Exception {
+        _fixture = new B2cFixture();
+        _tokenClient = new B2cTokenClient(new RestTemplate(), _fixture.guard, _fixture.objectMapper);
+        _tokenReader = _fixture.objectMapper.readerFor(TokenInfo.class);
+
+        var profile = new UserInfo();
+        profile.setVer("1.0");
+        profile.setTid(_fixture.webAppConfig.getTenantId());
+        profile.setSub("6c5a2e6f-3b7d-4d0e-9a51-1f0c2b8e7d44");
+        profile.setName("Benchmark User");
+        profile.setPreferred_username("benchmark.user@example.com");
+        profile.setIdp("LocalAccount");
+
+        var response = new LinkedHashMap<String, Object>();
+        response.put("access_token", _fixture.signIdToken(1));
+        response.put("token_type", "Bearer");
+        response.put("not_before", System.currentTimeMillis() / 1000);
+        response.put("expires_in", 3600);
+        response.put("expires_on", System.currentTimeMillis() / 1000 + 3600);
+        response.put("resource", _fixture.webAppConfig.getClientId());
+        response.put("id_token", _fixture.signIdToken(2));
+        response.put("id_token_expires_in", 3600);
+        response.put("profile_info", Base64.getEncoder().encodeToString(_fixture.objectMapper.writeValueAsBytes(profile)));
+        response.put("scope", _fixture.webAppConfig.getClientId() + " offline_access openid");
+        response.put("refresh_token", Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("refresh-token".repeat(60).getBytes(StandardCharsets.US_ASCII)));
+        response.put("refresh_token_expires_in", 1209600);
+        _tokenResponse = _fixture.objectMapper.writeValueAsBytes(response);
+        _token = _tokenReader.readValue(_tokenResponse);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _fixture.close();
+    }
+
+    /**
+     * Read the tokens from the response stream, as the token client does
+     *
+     * @return The tokens
+     * @throws IOException The exception class for the invalid JSON
+     */
+    @Benchmark
+    public TokenInfo readTokenInfo() throws IOException {
+        return _tokenReader.readValue(new ByteArrayInputStream(_tokenResponse));
+    }
+
+    /**
+     * Decode the profile_info and read the user's information
+     *
+     * @return The user's information
+     * @throws IOException The exception class for the invalid JSON
+     */
+    @Benchmark
+    public UserInfo readProfile() throws IOException {
+        return _tokenClient.readProfile(_token);
+    }
+
+    /**
+     * Only the Base64 decoding of the profile_info
+     *
+     * @return The decoded JSON
+     */
+    @Benchmark
+    public byte[] decodeProfileInfo() {
+        return Base64.getDecoder().decode(_token.getProfileInfoEncoded());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * The latencies recorded by one virtual user, merged and sorted for the report
+ */
+final class LatencySamples {
+
+    private long[] _nanos = new long[1024];
+
+    private int _size;
+
+    private boolean _sorted = true;
+
+    void add(long nanos) {
+        if (_size == _nanos.length) {
+            _nanos = Arrays.copyOf(_nanos, _size * 2);
+        }
+        _nanos[_size++] = nanos;
+        _sorted = false;
+    }
+
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Merge the samples into this one
+     *
+     * @param other The samples of another user
+     */
+    void addAll(LatencySamples other) {
+        if (_size + other._size > _nanos.length) {
+            _nanos = Arrays.copyOf(_nanos, Math.max(_nanos.length * 2, _size + other._size));
+        }
+        System.arraycopy(other._nanos, 0, _nanos, _size, other._size);
+        _size += other._size;
+        _sorted = false;
+    }
+
+    /**
+     * Get the percentile in milliseconds. The samples are sorted on the first call.
+     *
+     * @param percentile The percentile between 0 and 100
+     * @return The latency in milliseconds, or 0 if there are no samples
+     */
+    double percentileMillis(double percentile) {
+        if (_size == 0) {
+            return 0;
+        }
+        if (!_sorted) {
+            Arrays.sort(_nanos, 0, _size);
+            _sorted = true;
+        }
+        var index = (int) Math.ceil(percentile / 100 * _size) - 1;
+        return _nanos[Math.max(0, Math.min(index, _size - 1))] / 1_000_000.0;
+    }
+}
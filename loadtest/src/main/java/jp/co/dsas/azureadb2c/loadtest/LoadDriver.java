@@ -0,0 +1,335 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The load driver running the whole sign-in and sign-out cycle of the sample applications.
+ * <p>
+ * Each virtual user has its own cookies and repeats {@code /login} → authorize → {@code /success}
+ * → {@code /logout} → logout → {@code /sign_out}, following the redirects between the application
+ * and {@link StubIdentityProvider} itself. It reports the time to the first successful sign-in, the
+ * throughput, the p50/p99 latencies and, when the application exposes the actuator metrics, the heap
+ * used per concurrent user.
+ * <pre>
+ * java -jar loadtest/target/loadtest.jar --app=http://localhost:8080 --users=200 --duration=60s --warmup=10s
+ * </pre>
+ * The same run against the application with {@code spring.threads.virtual.enabled=true}, or
+ * against the reactive sample, gives the comparison between them.
+ */
+public class LoadDriver {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * The redirects followed at most in one step
+     */
+    private static final int MAX_REDIRECTS = 10;
+
+    private final HttpClient _httpClient;
+
+    private final String _appUrl;
+
+    private final String _flowQuery;
+
+    /**
+     * The pause of a user after a failed step, so a failing application is not hit in a tight loop
+     */
+    private final Duration _failurePause;
+
+    /**
+     * The failed steps by the status and the path where they ended
+     */
+    private final ConcurrentHashMap<String, LongAdder> _errors = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param appUrl       The base URL of the application
+     * @param flowName     The user flow to sign in with, or null for the default flow
+     * @param failurePause The pause of a user after a failed step
+     */
+    public LoadDriver(String appUrl, String flowName, Duration failurePause) {
+        this._appUrl = appUrl.replaceAll("/+$", "");
+        this._flowQuery = flowName != null ? "?flow=" + flowName : "";
+        this._failurePause = failurePause;
+        this._httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Run the load test
+     *
+     * @param args The options: app, users, duration, warmup, flow, ready_timeout, failure_pause
+     * @throws Exception The exception class when the test cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        var arguments = new Arguments(args);
+        var driver = new LoadDriver(arguments.getString("app", "http://localhost:8080"), arguments.getString("flow", null),
+                arguments.getDuration("failure_pause", Duration.ofMillis(100)));
+        driver.run(arguments.getInt("users", 50),
+                arguments.getDuration("warmup", Duration.ofSeconds(10)),
+                arguments.getDuration("duration", Duration.ofSeconds(60)),
+                arguments.getDuration("ready_timeout", Duration.ofMinutes(2)));
+    }
+
+    /**
+     * Run the users and print the report
+     *
+     * @param users        The number of the concurrent users
+     * @param warmup       The time before the measurement starts
+     * @param duration     The time of the measurement
+     * @param readyTimeout How long to wait for the first successful sign-in
+     * @throws InterruptedException The exception class when the run is interrupted
+     */
+    public void run(int users, Duration warmup, Duration duration, Duration readyTimeout) throws InterruptedException {
+        // Wait for the application and the identity provider, which also gives the time to the first sign-in
+        var firstSignIn = _awaitFirstSignIn(readyTimeout);
+        if (firstSignIn < 0) {
+            System.out.println("No sign-in succeeded within " + readyTimeout + ": " + _errors);
+            return;
+        }
+        _errors.clear();
+        var baselineHeap = _heapUsed();
+
+        var startAt = System.nanoTime();
+        var measureFrom = startAt + warmup.toNanos();
+        var endAt = measureFrom + duration.toNanos();
+        var virtualUsers = new ArrayList<VirtualUser>(users);
+        var threads = new ArrayList<Thread>(users);
+        for (int i = 0; i < users; i++) {
+            var user = new VirtualUser(measureFrom, endAt);
+            virtualUsers.add(user);
+            threads.add(Thread.ofVirtual().name("user-" + i).start(user));
+        }
+
+        // Sample the heap of the application while all the users are signing in
+        var heapSamples = new ArrayList<Long>();
+        Thread.sleep(Math.max(0, (measureFrom - System.nanoTime()) / 1_000_000));
+        while (System.nanoTime() < endAt) {
+            var heap = _heapUsed();
+            if (heap >= 0) {
+                heapSamples.add(heap);
+            }
+            Thread.sleep(1000);
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        var signIn = new LatencySamples();
+        var signOut = new LatencySamples();
+        var cycle = new LatencySamples();
+        for (var user : virtualUsers) {
+            signIn.addAll(user.signIn);
+            signOut.addAll(user.signOut);
+            cycle.addAll(user.cycle);
+        }
+        var seconds = duration.toMillis() / 1000.0;
+        var errors = new TreeMap<String, Long>();
+        _errors.forEach((key, count) -> errors.put(key, count.sum()));
+
+        System.out.printf("Users                %d%n", users);
+        System.out.printf("Measured             %.0f s after %.0f s of warm-up%n", seconds, warmup.toMillis() / 1000.0);
+        System.out.printf("First sign-in        %.1f ms after the start of the driver%n", firstSignIn / 1_000_000.0);
+        System.out.printf("Cycles               %d (%.1f/s)%n", cycle.size(), cycle.size() / seconds);
+        System.out.printf("Errors               %d %s%n", errors.values().stream().mapToLong(Long::longValue).sum(), errors);
+        System.out.printf("Sign-in  p50 / p99   %.1f / %.1f ms%n", signIn.percentileMillis(50), signIn.percentileMillis(99));
+        System.out.printf("Sign-out p50 / p99   %.1f / %.1f ms%n", signOut.percentileMillis(50), signOut.percentileMillis(99));
+        System.out.printf("Cycle    p50 / p99   %.1f / %.1f ms%n", cycle.percentileMillis(50), cycle.percentileMillis(99));
+        if (baselineHeap >= 0 && !heapSamples.isEmpty()) {
+            var mean = heapSamples.stream().mapToLong(Long::longValue).average().orElse(0);
+            var max = heapSamples.stream().mapToLong(Long::longValue).max().orElse(0);
+            System.out.printf("Heap                 %.1f MB idle, %.1f MB mean, %.1f MB max under load%n",
+                    baselineHeap / 1048576.0, mean / 1048576.0, max / 1048576.0);
+            System.out.printf("Heap per user        %.1f KB%n", (mean - baselineHeap) / 1024.0 / users);
+        } else {
+            System.out.println("Heap                 n/a (the application does not expose /actuator/metrics)");
+        }
+    }
+
+    /**
+     * Repeat the cycle until it succeeds once
+     *
+     * @param timeout How long to try
+     * @return The nanoseconds until the first successful sign-in, or -1 if it did not succeed
+     * @throws InterruptedException The exception class when the wait is interrupted
+     */
+    private long _awaitFirstSignIn(Duration timeout) throws InterruptedException {
+        var start = System.nanoTime();
+        while (System.nanoTime() - start < timeout.toNanos()) {
+            var cookies = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
+            if (_step(cookies, "/login" + _flowQuery, "/success")) {
+                var elapsed = System.nanoTime() - start;
+                _step(cookies, "/logout" + _flowQuery, "/sign_out");
+                return elapsed;
+            }
+            Thread.sleep(100);
+        }
+        return -1;
+    }
+
+    /**
+     * Request the path of the application and follow the redirects
+     *
+     * @param cookies The cookies of the user
+     * @param path    The path to start from
+     * @param endPath The path of the page where the step must end
+     * @return true if the step ended at the page with 200
+     */
+    private boolean _step(CookieManager cookies, String path, String endPath) {
+        var uri = URI.create(_appUrl + path);
+        try {
+            for (int i = 0; i <= MAX_REDIRECTS; i++) {
+                var builder = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30));
+                cookies.get(uri, Map.of()).forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+                var response = _httpClient.send(builder.build(), HttpResponse.BodyHandlers.discarding());
+                cookies.put(uri, response.headers().map());
+
+                var location = response.headers().firstValue("Location");
+                if (response.statusCode() / 100 == 3 && location.isPresent()) {
+                    uri = uri.resolve(location.get());
+                    continue;
+                }
+                if (response.statusCode() == 200 && endPath.equals(uri.getPath())) {
+                    return true;
+                }
+                _countError(response.statusCode() + " " + uri.getPath());
+                return false;
+            }
+            _countError("too many redirects " + uri.getPath());
+        } catch (IOException e) {
+            _countError(e.getClass().getSimpleName() + " " + uri.getPath());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void _countError(String key) {
+        _errors.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Get the heap used by the application from the actuator metrics
+     *
+     * @return The bytes, or -1 if the metrics are not available
+     */
+    private long _heapUsed() {
+        try {
+            var request = HttpRequest.newBuilder(URI.create(_appUrl + "/actuator/metrics/jvm.memory.used?tag=area:heap"))
+                    .timeout(Duration.ofSeconds(5))
+                    .build();
+            var response = _httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                return -1;
+            }
+            return OBJECT_MAPPER.readTree(response.body()).path("measurements").path(0).path("value").asLong(-1);
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    /**
+     * One user repeating the cycle with its own cookies
+     */
+    private final class VirtualUser implements Runnable {
+
+        private final long _measureFrom;
+
+        private final long _endAt;
+
+        final LatencySamples signIn = new LatencySamples();
+
+        final LatencySamples signOut = new LatencySamples();
+
+        final LatencySamples cycle = new LatencySamples();
+
+        VirtualUser(long measureFrom, long endAt) {
+            this._measureFrom = measureFrom;
+            this._endAt = endAt;
+        }
+
+        @Override
+        public void run() {
+            var cookies = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
+            while (System.nanoTime() < _endAt && !Thread.currentThread().isInterrupted()) {
+                var start = System.nanoTime();
+                if (!_step(cookies, "/login" + _flowQuery, "/success")) {
+                    _pauseAfterFailure();
+                    continue;
+                }
+                var signedIn = System.nanoTime();
+                if (!_step(cookies, "/logout" + _flowQuery, "/sign_out")) {
+                    _pauseAfterFailure();
+                    continue;
+                }
+                var signedOut = System.nanoTime();
+                // Only the cycles that started after the warm-up are measured
+                if (start >= _measureFrom && signedOut <= _endAt) {
+                    signIn.add(signedIn - start);
+                    signOut.add(signedOut - signedIn);
+                    cycle.add(signedOut - start);
+                }
+            }
+        }
+
+        /**
+         * Wait after a failed step. The jitter keeps the users that failed together from retrying together.
+         */
+        private void _pauseAfterFailure() {
+            var pauseNanos = _failurePause.toNanos();
+            if (pauseNanos <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(pauseNanos / 2 + ThreadLocalRandom.current().nextLong(pauseNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
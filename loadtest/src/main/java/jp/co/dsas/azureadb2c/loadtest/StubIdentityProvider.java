@@ -0,0 +1,446 @@
+/*
+ * MIT License
+ *
+ * Copyright © 2024 Hiroaki Fujii
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package jp.co.dsas.azureadb2c.loadtest;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A local stand-in of Azure AD B2C for the load tests.
+ * <p>
+ * It serves the discovery document, the signing keys, the authorize, token and logout endpoints
+ * of any tenant and user flow under {@code /{tenant}.onmicrosoft.com/{user flow}/}, and signs the
+ * tokens with a key generated at startup. The sign-in page is skipped: the authorize endpoint
+ * redirects straight back with the code and the id token. Every response can be delayed, and the
+ * calls from the application (discovery, keys, token) can fail with 503 at the given rate.
+ * <p>
+ * The application is pointed at it by {@code spring.application.authority_host=http://localhost:9090}.
+ * The issuer of the tokens is {@code {issuer_base}/{tenant_id}/v2.0/}, and the application accepts
+ * only the issuer built from its authority_host, so issuer_base must be the same scheme, host and
+ * port as authority_host (http://localhost:{port} by default). Another host name for the same stub,
+ * such as http://127.0.0.1:9090 or the name of a container, needs {@code --issuer_base} set to it.
+ * <pre>
+ * java -cp loadtest/target/loadtest.jar jp.co.dsas.azureadb2c.loadtest.StubIdentityProvider \
+ *     --port=9090 --tenant_id=... --issuer_base=http://localhost:9090 --latency=50ms --jitter=20ms --error_rate=0.01
+ * </pre>
+ */
+public class StubIdentityProvider implements AutoCloseable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final HttpServer _server;
+
+    private final String _baseUrl;
+
+    /**
+     * The scheme, host and port in the issuer of the tokens, the same as authority_host of the application
+     */
+    private final String _issuerBase;
+
+    private final String _tenantId;
+
+    private final Duration _latency;
+
+    private final Duration _jitter;
+
+    private final double _errorRate;
+
+    /**
+     * The key id, new for every run, so the keys saved by the application from an earlier run are not trusted
+     */
+    private final String _keyId;
+
+    private final RSAPublicKey _publicKey;
+
+    private final Algorithm _algorithm;
+
+    private final byte[] _keys;
+
+    private final String _keysEtag;
+
+    /**
+     * The sign-ins whose code has not been redeemed yet
+     */
+    private final ConcurrentHashMap<String, SignIn> _codes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param port       The port to listen on, or 0 for any free port
+     * @param tenantId   The tenant id in the issuer of the tokens
+     * @param issuerBase The authority_host of the application for the issuer, or null for the base URL of the stub
+     * @param latency    The delay of every response
+     * @param jitter     The random delay added to the latency
+     * @param errorRate  The rate of the calls from the application that fail with 503
+     * @throws IOException              The exception class when the port cannot be opened
+     * @throws NoSuchAlgorithmException The exception class when RSA is not available
+     */
+    public StubIdentityProvider(int port, String tenantId, String issuerBase, Duration latency, Duration jitter,
+                                double errorRate) throws IOException, NoSuchAlgorithmException {
+        this._tenantId = tenantId;
+        this._latency = latency;
+        this._jitter = jitter;
+        this._errorRate = errorRate;
+
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        var keyPair = generator.generateKeyPair();
+        this._keyId = "stub-" + UUID.randomUUID();
+        this._publicKey = (RSAPublicKey) keyPair.getPublic();
+        this._algorithm = Algorithm.RSA256(_publicKey, (RSAPrivateKey) keyPair.getPrivate());
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        this._keys = OBJECT_MAPPER.writeValueAsBytes(Map.of("keys", List.of(Map.of(
+                "kid", _keyId,
+                "use", "sig",
+                "kty", "RSA",
+                "n", encoder.encodeToString(_toUnsignedBytes(_publicKey.getModulus())),
+                "e", encoder.encodeToString(_toUnsignedBytes(_publicKey.getPublicExponent()))))));
+        this._keysEtag = "\"" + _keyId + "\"";
+
+        this._server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this._server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this._server.createContext("/", this::_handle);
+        this._baseUrl = "http://localhost:" + _server.getAddress().getPort();
+        // The application compares the issuer with its authority_host, which has no trailing slash
+        this._issuerBase = issuerBase != null && !issuerBase.isBlank() ? issuerBase.replaceAll("/+$", "") : _baseUrl;
+    }
+
+    /**
+     * Start the server
+     *
+     * @param args The options: port, tenant_id, issuer_base, latency, jitter, error_rate
+     * @throws Exception The exception class when the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        var arguments = new Arguments(args);
+        var stub = new StubIdentityProvider(
+                arguments.getInt("port", 9090),
+                arguments.getString("tenant_id", "12345xxx-12345-12345-1xxx-x1234x567xxx"),
+                arguments.getString("issuer_base", null),
+                arguments.getDuration("latency", Duration.ZERO),
+                arguments.getDuration("jitter", Duration.ZERO),
+                arguments.getDouble("error_rate", 0.0));
+        stub.start();
+        System.out.println("The stub identity provider is listening on " + stub.getBaseUrl()
+                + ", set spring.application.authority_host=" + stub.getIssuerBase());
+    }
+
+    public void start() {
+        _server.start();
+    }
+
+    @Override
+    public void close() {
+        _server.stop(0);
+    }
+
+    /**
+     * Get the URL to set to spring.application.authority_host
+     *
+     * @return The scheme, host and port
+     */
+    public String getBaseUrl() {
+        return _baseUrl;
+    }
+
+    /**
+     * Get the scheme, host and port in the issuer of the tokens, which authority_host of the application must equal
+     *
+     * @return The issuer base without the trailing slash
+     */
+    public String getIssuerBase() {
+        return _issuerBase;
+    }
+
+    /**
+     * Route the request by the path after the tenant and the user flow
+     *
+     * @param exchange The request and the response
+     * @throws IOException The exception class for the failure of the connection
+     */
+    private void _handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            _delay();
+            // /{tenant}.onmicrosoft.com/{user flow}/{endpoint}
+            var segments = exchange.getRequestURI().getPath().split("/", 4);
+            if (segments.length < 4) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            var authority = _baseUrl + "/" + segments[1] + "/" + segments[2];
+            var userFlow = segments[2];
+            var endpoint = segments[3].endsWith("/") ? segments[3].substring(0, segments[3].length() - 1) : segments[3];
+            switch (endpoint) {
+                case "v2.0/.well-known/openid-configuration" -> _discovery(exchange, authority);
+                case "discovery/v2.0/keys" -> _keys(exchange);
+                case "oauth2/v2.0/authorize" -> _authorize(exchange, userFlow);
+                case "oauth2/v2.0/token" -> _token(exchange, userFlow);
+                case "oauth2/v2.0/logout" -> _logout(exchange);
+                default -> exchange.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    private void _discovery(HttpExchange exchange, String authority) throws IOException {
+        if (_injectError(exchange)) {
+            return;
+        }
+        var document = new LinkedHashMap<String, Object>();
+        document.put("issuer", _issuer());
+        document.put("authorization_endpoint", authority + "/oauth2/v2.0/authorize");
+        document.put("token_endpoint", authority + "/oauth2/v2.0/token");
+        document.put("end_session_endpoint", authority + "/oauth2/v2.0/logout");
+        document.put("jwks_uri", authority + "/discovery/v2.0/keys");
+        _sendJson(exchange, 200, OBJECT_MAPPER.writeValueAsBytes(document));
+    }
+
+    private void _keys(HttpExchange exchange) throws IOException {
+        if (_injectError(exchange)) {
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", _keysEtag);
+        if (_keysEtag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        _sendJson(exchange, 200, _keys);
+    }
+
+    /**
+     * Sign in a new user without a page and redirect back with the code and the id token
+     */
+    private void _authorize(HttpExchange exchange, String userFlow) throws IOException {
+        var params = _parseQuery(exchange.getRequestURI().getRawQuery());
+        var clientId = params.get("client_id");
+        var redirectUri = params.get("redirect_uri");
+        if (clientId == null || redirectUri == null) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+        var signIn = new SignIn(UUID.randomUUID().toString(), clientId, params.get("nonce"), Instant.now());
+        var code = UUID.randomUUID().toString();
+        _codes.put(code, signIn);
+
+        var location = redirectUri + (redirectUri.indexOf('?') < 0 ? "?" : "&") +
+                "state=" + _encode(params.getOrDefault("state", "")) +
+                "&code=" + code +
+                "&id_token=" + _idToken(signIn, userFlow);
+        exchange.getResponseHeaders().set("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+    }
+
+    /**
+     * Redeem the code or the refresh token. The parameters are read from the query and the form.
+     */
+    private void _token(HttpExchange exchange, String userFlow) throws IOException {
+        if (_injectError(exchange)) {
+            return;
+        }
+        var params = _parseQuery(exchange.getRequestURI().getRawQuery());
+        params.putAll(_parseQuery(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.US_ASCII)));
+
+        SignIn signIn;
+        if ("authorization_code".equals(params.get("grant_type"))) {
+            signIn = _codes.remove(String.valueOf(params.get("code")));
+        } else if ("refresh_token".equals(params.get("grant_type")) && params.get("refresh_token") != null) {
+            signIn = new SignIn(UUID.randomUUID().toString(), params.get("client_id"), null, Instant.now());
+        } else {
+            signIn = null;
+        }
+        if (signIn == null) {
+            _sendJson(exchange, 400, OBJECT_MAPPER.writeValueAsBytes(Map.of("error", "invalid_grant")));
+            return;
+        }
+
+        var now = Instant.now().getEpochSecond();
+        var profile = new LinkedHashMap<String, Object>();
+        profile.put("ver", "1.0");
+        profile.put("tid", _tenantId);
+        profile.put("sub", signIn.subject());
+        profile.put("name", "Load Test User");
+        profile.put("preferred_username", "user-" + signIn.subject() + "@example.com");
+        profile.put("idp", "LocalAccount");
+
+        var response = new LinkedHashMap<String, Object>();
+        response.put("access_token", _idToken(signIn, userFlow));
+        response.put("token_type", "Bearer");
+        response.put("not_before", now);
+        response.put("expires_in", 3600);
+        response.put("expires_on", now + 3600);
+        response.put("resource", signIn.clientId());
+        response.put("id_token", _idToken(signIn, userFlow));
+        response.put("id_token_expires_in", 3600);
+        response.put("profile_info", Base64.getEncoder().encodeToString(OBJECT_MAPPER.writeValueAsBytes(profile)));
+        response.put("scope", signIn.clientId() + " offline_access openid");
+        response.put("refresh_token", UUID.randomUUID().toString());
+        response.put("refresh_token_expires_in", 1209600);
+        _sendJson(exchange, 200, OBJECT_MAPPER.writeValueAsBytes(response));
+
+        // Forget the codes that were never redeemed
+        var expired = Instant.now().minus(Duration.ofMinutes(10));
+        if (_codes.size() > 10_000) {
+            _codes.values().removeIf(pending -> pending.signedInAt().isBefore(expired));
+        }
+    }
+
+    private void _logout(HttpExchange exchange) throws IOException {
+        var params = _parseQuery(exchange.getRequestURI().getRawQuery());
+        var redirectUri = params.getOrDefault("post_logout_redirect_uri", params.get("redirect_uri"));
+        if (redirectUri == null) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        var location = redirectUri + (redirectUri.indexOf('?') < 0 ? "?" : "&") +
+                "state=" + _encode(params.getOrDefault("state", ""));
+        exchange.getResponseHeaders().set("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+    }
+
+    /**
+     * Sign the id token of the sign-in as the user flow does
+     */
+    private String _idToken(SignIn signIn, String userFlow) {
+        var now = Instant.now();
+        var builder = JWT.create()
+                .withKeyId(_keyId)
+                .withIssuer(_issuer())
+                .withAudience(signIn.clientId())
+                .withSubject(signIn.subject())
+                .withIssuedAt(now)
+                .withNotBefore(now)
+                .withExpiresAt(now.plus(Duration.ofHours(1)))
+                .withClaim("ver", "1.0")
+                .withClaim("auth_time", signIn.signedInAt().getEpochSecond())
+                .withClaim("name", "Load Test User")
+                .withClaim("tfp", userFlow);
+        if (signIn.nonce() != null) {
+            builder.withClaim("nonce", signIn.nonce());
+        }
+        return builder.sign(_algorithm);
+    }
+
+    private String _issuer() {
+        return _issuerBase + "/" + _tenantId + "/v2.0/";
+    }
+
+    /**
+     * Sleep for the latency and a random part of the jitter
+     */
+    private void _delay() {
+        var millis = _latency.toMillis();
+        if (!_jitter.isZero()) {
+            millis += ThreadLocalRandom.current().nextLong(_jitter.toMillis() + 1);
+        }
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Fail the request with 503 at the error rate
+     *
+     * @return true if the request has failed
+     */
+    private boolean _injectError(HttpExchange exchange) throws IOException {
+        if (_errorRate <= 0 || ThreadLocalRandom.current().nextDouble() >= _errorRate) {
+            return false;
+        }
+        _sendJson(exchange, 503, OBJECT_MAPPER.writeValueAsBytes(Map.of("error", "temporarily_unavailable")));
+        return true;
+    }
+
+    private static void _sendJson(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Map<String, String> _parseQuery(String query) {
+        var params = new HashMap<String, String>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (var pair : query.split("&")) {
+            var separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static String _encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] _toUnsignedBytes(BigInteger value) {
+        var bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            return Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * The sign-in waiting for its code to be redeemed
+     *
+     * @param subject    The user
+     * @param clientId   The application
+     * @param nonce      The nonce of the application, or null
+     * @param signedInAt The time of the sign-in
+     */
+    private record SignIn(String subject, String clientId, String nonce, Instant signedInAt) {
+    }
+}